@@ -0,0 +1,105 @@
+package minijava.ir.optimize;
+
+import static org.jooq.lambda.Seq.seq;
+
+import com.google.common.collect.Sets;
+import firm.Entity;
+import firm.Graph;
+import firm.Program;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import minijava.Compiler;
+import minijava.ir.utils.GraphUtils;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Provides the unoptimized graphs of a MiniJava program to benchmarks.
+ *
+ * <p>Optimizations change the graphs they run on, so each invocation needs fresh graphs. Emitting
+ * the program again every time would leak the entities and types of each emission, so it is only
+ * emitted once per trial and its graphs are moved to backup entities. Before each invocation, the
+ * backups are copied back to the entities of the program, so that calls refer to the copies. The
+ * copies are freed afterwards.
+ */
+@State(Scope.Thread)
+public class BenchmarkProgram {
+  private static final String BACKUP_SUFFIX = ".pristine";
+
+  /**
+   * Either the path of a program of our corpus (see src/jmh/resources) or {@code generated/n},
+   * denoting a program with {@code n} generated methods.
+   */
+  @Param({
+    "corpus/Loops.mj",
+    "corpus/Objects.mj",
+    "corpus/Recursion.mj",
+    "corpus/ScalarReplacement.mj",
+    "generated/10",
+    "generated/50",
+    "generated/200"
+  })
+  public String program;
+
+  /** The graphs of the current invocation. */
+  public List<Graph> graphs;
+
+  /** Unoptimized copies of the emitted graphs, by the entity they were emitted for. */
+  private Map<Entity, Graph> backups;
+
+  @Setup(Level.Trial)
+  public void emit() throws IOException {
+    Set<Graph> previous = Sets.newHashSet(Program.getGraphs());
+    try (InputStream in = open(program)) {
+      Compiler.produceFirmIR(in, 0);
+    }
+    backups = new HashMap<>();
+    for (Graph emitted : seq(Program.getGraphs()).filter(g -> !previous.contains(g)).toList()) {
+      Entity entity = emitted.getEntity();
+      Entity backup =
+          new Entity(entity.getOwner(), entity.getName() + BACKUP_SUFFIX, entity.getType());
+      backup.setLdIdent(entity.getLdName() + BACKUP_SUFFIX);
+      backups.put(entity, GraphUtils.copyGraph(emitted, backup));
+      GraphUtils.freeGraph(emitted);
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void restore() {
+    graphs = seq(backups).map(backup -> GraphUtils.copyGraph(backup.v2, backup.v1)).toList();
+  }
+
+  @TearDown(Level.Invocation)
+  public void free() {
+    graphs.forEach(GraphUtils::freeGraph);
+  }
+
+  @TearDown(Level.Trial)
+  public void freeBackups() {
+    backups.values().forEach(GraphUtils::freeGraph);
+  }
+
+  private static InputStream open(String program) {
+    String generatedPrefix = "generated/";
+    if (program.startsWith(generatedPrefix)) {
+      int methods = Integer.parseInt(program.substring(generatedPrefix.length()));
+      String source = GeneratedPrograms.generate(methods);
+      return new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8));
+    }
+    InputStream in = BenchmarkProgram.class.getResourceAsStream("/" + program);
+    if (in == null) {
+      throw new IllegalArgumentException("No such program in the corpus: " + program);
+    }
+    return in;
+  }
+}
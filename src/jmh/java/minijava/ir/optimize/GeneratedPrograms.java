@@ -0,0 +1,103 @@
+package minijava.ir.optimize;
+
+import java.util.Random;
+
+/**
+ * Generates well-typed MiniJava programs of configurable size for benchmarking.
+ *
+ * <p>The {@code ProgramGenerator} of our test suite generates syntactically valid programs, which
+ * almost never survive semantic analysis, so we can't build graphs from them. The programs
+ * generated here are assembled from a few templates with randomized constants instead. Generation
+ * is deterministic, so that results of different runs are comparable.
+ */
+class GeneratedPrograms {
+  private GeneratedPrograms() {}
+
+  /** Generates a program with {@code methods} methods, each calling its predecessor. */
+  static String generate(int methods) {
+    Random random = new Random(methods);
+    StringBuilder sb = new StringBuilder();
+    sb.append("class Main {\n");
+    sb.append("  public static void main(String[] args) {\n");
+    sb.append("    Gen g = new Gen();\n");
+    sb.append("    g.init(100);\n");
+    sb.append("    int r = 0;\n");
+    for (int i = 0; i < methods; ++i) {
+      sb.append(String.format("    r = r + g.m%d(%d);\n", i, random.nextInt(100)));
+    }
+    sb.append("    System.out.println(r);\n");
+    sb.append("  }\n");
+    sb.append("}\n\n");
+
+    sb.append("class Gen {\n");
+    sb.append("  public int[] arr;\n");
+    sb.append("  public int size;\n");
+    sb.append("  public int acc;\n");
+    sb.append("  public boolean flag;\n\n");
+    sb.append("  public void init(int n) {\n");
+    sb.append("    arr = new int[n];\n");
+    sb.append("    size = n;\n");
+    sb.append("    int i = 0;\n");
+    sb.append("    while (i < n) {\n");
+    sb.append("      arr[i] = i * 7 % 13;\n");
+    sb.append("      i = i + 1;\n");
+    sb.append("    }\n");
+    sb.append("  }\n");
+    for (int i = 0; i < methods; ++i) {
+      sb.append("\n");
+      appendMethod(sb, i, random);
+    }
+    sb.append("}\n");
+    return sb.toString();
+  }
+
+  private static void appendMethod(StringBuilder sb, int i, Random random) {
+    sb.append(String.format("  public int m%d(int x) {\n", i));
+    sb.append(String.format("    int a = x + %d;\n", random.nextInt(100)));
+    sb.append(String.format("    int b = a * %d - x;\n", random.nextInt(10) + 1));
+    sb.append("    int i = 0;\n");
+    switch (random.nextInt(3)) {
+      case 0:
+        // Loop with invariant code and a branch
+        sb.append("    while (i < size) {\n");
+        sb.append(String.format("      arr[i] = arr[i] + a * b + %d;\n", random.nextInt(100)));
+        sb.append(String.format("      if (arr[i] > %d) {\n", random.nextInt(1000)));
+        sb.append(String.format("        acc = acc + arr[i] / %d;\n", random.nextInt(9) + 1));
+        sb.append("      } else {\n");
+        sb.append("        acc = acc - b;\n");
+        sb.append("      }\n");
+        sb.append("      i = i + 1;\n");
+        sb.append("    }\n");
+        break;
+      case 1:
+        // Redundant loads and constant expressions
+        sb.append(String.format("    int c = %d * %d;\n", random.nextInt(10), random.nextInt(10)));
+        sb.append("    while (i < size && !flag) {\n");
+        sb.append("      int t = arr[i] * c + arr[i] * c;\n");
+        sb.append("      arr[i] = t % 1000;\n");
+        sb.append(String.format("      if (t == %d) {\n", random.nextInt(100)));
+        sb.append("        flag = true;\n");
+        sb.append("      }\n");
+        sb.append("      i = i + 1;\n");
+        sb.append("    }\n");
+        break;
+      default:
+        // Nested loops over fields
+        sb.append("    while (i < 10) {\n");
+        sb.append("      int j = 0;\n");
+        sb.append("      while (j < size) {\n");
+        sb.append(String.format("        acc = acc + (arr[j] + i) * %d;\n", random.nextInt(10)));
+        sb.append("        j = j + 1;\n");
+        sb.append("      }\n");
+        sb.append("      i = i + 1;\n");
+        sb.append("    }\n");
+        break;
+    }
+    if (i > 0) {
+      sb.append(String.format("    return acc + this.m%d(b);\n", i - 1));
+    } else {
+      sb.append("    return acc + b;\n");
+    }
+    sb.append("  }\n");
+  }
+}
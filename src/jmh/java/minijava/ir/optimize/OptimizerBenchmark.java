@@ -0,0 +1,67 @@
+package minijava.ir.optimize;
+
+import firm.Graph;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures a single run of an optimization pass over all graphs of a program. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class OptimizerBenchmark {
+
+  @Param({
+    "ConstantFolder",
+    "SparseConditionalConstantPropagation",
+    "CommonSubexpressionElimination",
+    "AliasAnalyzer",
+    "LoopInvariantCodeMotion",
+    "ScalarReplacement",
+    "Inliner"
+  })
+  public String optimizer;
+
+  @Benchmark
+  public boolean optimize(BenchmarkProgram program) {
+    Optimizer pass = create(optimizer, program).get();
+    boolean hasChanged = false;
+    for (Graph graph : program.graphs) {
+      hasChanged |= pass.optimize(graph);
+    }
+    return hasChanged;
+  }
+
+  private static Supplier<Optimizer> create(String optimizer, BenchmarkProgram program) {
+    switch (optimizer) {
+      case "ConstantFolder":
+        return ConstantFolder::new;
+      case "SparseConditionalConstantPropagation":
+        return SparseConditionalConstantPropagation::new;
+      case "CommonSubexpressionElimination":
+        return CommonSubexpressionElimination::new;
+      case "AliasAnalyzer":
+        return AliasAnalyzer::new;
+      case "LoopInvariantCodeMotion":
+        return LoopInvariantCodeMotion::new;
+      case "ScalarReplacement":
+        return ScalarReplacement::new;
+      case "Inliner":
+        return () -> new Inliner(ProgramMetrics.analyse(program.graphs), false);
+      default:
+        throw new IllegalArgumentException("Unknown optimizer " + optimizer);
+    }
+  }
+}
@@ -0,0 +1,41 @@
+package minijava.ir.optimize;
+
+import firm.Graph;
+import java.util.concurrent.TimeUnit;
+import minijava.Compiler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link OptimizerFramework#optimizeUntilFixedpoint(Graph)} with the intraprocedural
+ * optimizations the compiler runs at the given level.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class OptimizerFrameworkBenchmark {
+
+  @Param({"1", "3"})
+  public int level;
+
+  @Benchmark
+  public boolean optimizeUntilFixedpoint(BenchmarkProgram program) {
+    OptimizerFramework framework = Compiler.intraproceduralOptimizations(level);
+    boolean hasChanged = false;
+    for (Graph graph : program.graphs) {
+      hasChanged |= framework.optimizeUntilFixedpoint(graph);
+    }
+    return hasChanged;
+  }
+}
@@ -100,6 +100,16 @@ public class Cli {
         runFirm(in);
       } else if (params.printAsm) {
         printAsm(in, params.optimizationLevel);
+      } else if (params.workerShard != null) {
+        ParallelOptimization.runWorker(
+            in, params.optimizationLevel, params.workerShard, params.workerOut);
+      } else if (params.optimizationLevel > 0 && ParallelOptimization.numberOfWorkers() > 1) {
+        ParallelOptimization.compile(
+            path,
+            params.optimizationLevel,
+            ParallelOptimization.numberOfWorkers(),
+            "a.out",
+            shouldProduceDebuggableBinary());
       } else {
         compile(in, params.optimizationLevel);
       }
@@ -161,7 +171,7 @@ public class Cli {
   /** Compiles (with/out optimizations) with the firm backend. */
   private void compileFirm(InputStream in, int optimizationLevel) throws IOException {
     Compiler.produceFirmIR(in, optimizationLevel);
-    Compiler.compile(Backend.FIRM, "a.out", shouldProduceDebuggableBinary());
+    Compiler.compile(Backend.FIRM, "a.out", optimizationLevel, shouldProduceDebuggableBinary());
   }
 
   private static boolean shouldPrintGraphs() {
@@ -187,7 +197,7 @@ public class Cli {
 
   private void runFirm(InputStream in) throws IOException {
     Compiler.produceFirmIR(in, 0);
-    Compiler.compile(Backend.FIRM, "a.out", shouldProduceDebuggableBinary());
+    Compiler.compile(Backend.FIRM, "a.out", 0, shouldProduceDebuggableBinary());
     runCompiledProgram("a.out");
   }
 
@@ -210,7 +220,7 @@ public class Cli {
 
   private void compile(InputStream in, int optimizationLevel) throws IOException {
     Compiler.produceFirmIR(in, optimizationLevel);
-    Compiler.compile(Backend.OWN, "a.out", shouldProduceDebuggableBinary());
+    Compiler.compile(Backend.OWN, "a.out", optimizationLevel, shouldProduceDebuggableBinary());
   }
 
   private static class Parameters {
@@ -258,6 +268,14 @@ public class Cli {
     @Parameter(names = "--help")
     boolean help;
 
+    /** File with the names of the graphs to optimize when running as a worker process */
+    @Parameter(names = "--opt-worker-shard", hidden = true)
+    String workerShard;
+
+    /** File to which a worker process writes the assembly of its shard */
+    @Parameter(names = "--opt-worker-out", hidden = true)
+    String workerOut;
+
     @SuppressWarnings("MismatchedQueryAndUpdateOfCollection")
     @Parameter
     private List<String> mainParameters = new ArrayList<>();
@@ -275,6 +293,7 @@ public class Cli {
           && optimizationLevel <= 3
           && 0 <= verbosity
           && verbosity < Level.values().length
+          && ((workerShard == null) == (workerOut == null))
           && (help
               || ((Booleans.countTrue(
                           echo, lextest, parsetest, printAst, check, compileFirm, runFirm, printAsm)
@@ -2,10 +2,12 @@ package minijava;
 
 import static firm.bindings.binding_irgraph.ir_resources_t.IR_RESOURCE_IRN_LINK;
 import static minijava.Cli.dumpGraphsIfNeeded;
+import static org.jooq.lambda.Seq.seq;
 
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 import com.google.common.util.concurrent.Runnables;
+import com.sun.jna.Platform;
 import firm.Graph;
 import firm.Program;
 import firm.Util;
@@ -15,6 +17,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.Optional;
 import java.util.Set;
@@ -26,6 +29,7 @@ import minijava.ir.assembler.block.AssemblerFile;
 import minijava.ir.emit.IREmitter;
 import minijava.ir.optimize.*;
 import minijava.ir.utils.GraphUtils;
+import minijava.ir.utils.Profile;
 import minijava.lexer.Lexer;
 import minijava.parser.Parser;
 import minijava.semantic.SemanticAnalyzer;
@@ -63,32 +67,207 @@ public class Compiler {
   }
 
   public static void optimize(int level) {
+    optimize(level, Sets.newHashSet(Program.getGraphs()));
+  }
+
+  /**
+   * Optimizes only the given {@code graphs}. All other graphs are left untouched, but may still be
+   * inlined into the optimized ones. {@code graphs} itself isn't changed.
+   *
+   * @return New graphs which were created for the optimized ones, e.g. specialized clones of their
+   *     callees. They are optimized as well and have to be lowered together with {@code graphs}.
+   */
+  public static Set<Graph> optimize(int level, Set<Graph> graphs) {
     if (level == 0) {
       // We do constant folding and algebraic simplification just before emitting code, which should
       // be enough.
-      return;
+      return Collections.emptySet();
     }
     dumpGraphsIfNeeded("before-optimizations");
-    Optimizer constantFolder = new ConstantFolder();
-    Optimizer floatInTransformation = new FloatInTransformation();
+    MethodSummaries summaries = new MethodSummaries();
+    OptimizerFramework framework = intraproceduralOptimizations(level, summaries);
+    Optimizer unreachableCodeRemover = new UnreachableCodeRemover();
+    Optimizer interproceduralOptimizer = new InterproceduralOptimizer(summaries);
+
+    ProgramMetrics metrics = ProgramMetrics.analyse(Program.getGraphs());
+    Set<Graph> intraproceduralCandidates = Sets.newHashSet(graphs);
+    Profile profile = profile();
+    // Inlining would hide the calls we want to count when profiling.
+    boolean inline = !instrumentForProfiling();
+    Inliner inliner = new Inliner(metrics, true, profile);
+    ScheduledFuture<?> timer =
+        Executors.newScheduledThreadPool(1).schedule(Runnables.doNothing(), 9, TimeUnit.MINUTES);
+    while (!timer.isDone()) {
+      Set<Graph> reachable =
+          Sets.newHashSet(Sets.intersection(metrics.reachableFromMain(), graphs));
+
+      for (Graph graph : Sets.intersection(intraproceduralCandidates, reachable)) {
+        if (framework.optimizeUntilFixedpoint(graph)) {
+          metrics.invalidate(graph);
+        }
+      }
+
+      // Here comes the interprocedural stuff... This is method is really turning into a mess
+      intraproceduralCandidates.clear();
+      if (level > 1) {
+        summaries.analyse(Program.getGraphs(), metrics);
+        for (Graph graph : reachable) {
+          if (interproceduralOptimizer.optimize(graph)) {
+            metrics.invalidate(graph);
+            intraproceduralCandidates.add(graph);
+          }
+        }
+      }
+
+      Cli.dumpGraphsIfNeeded("before-Inliner");
+      for (Graph graph : reachable) {
+        boolean hasChanged = inline && inliner.optimize(graph);
+        if (hasChanged) {
+          intraproceduralCandidates.add(graph);
+        }
+        unreachableCodeRemover.optimize(graph);
+      }
+
+      // The Inliner records its edits in metrics, so there's no need to walk all graphs here.
+      if (intraproceduralCandidates.isEmpty()) {
+        if (inliner.onlyLeafs) {
+          inliner = new Inliner(metrics, false, profile);
+        } else {
+          break;
+        }
+      }
+    }
+
+    Set<Graph> clones = Collections.emptySet();
+    if (level > 1) {
+      // Specialized clones of methods which are too big to inline. They are optimized in isolation,
+      // but take part in everything below.
+      clones = new FunctionSpecialization(metrics, framework).specialize(graphs);
+      Set<Graph> withClones = Sets.union(graphs, clones);
+
+      // Adjacent loops are fused first, so that the loop transformations below see bigger bodies.
+      Optimizer loopFusion = new LoopFusion();
+      for (Graph graph : Sets.intersection(metrics.reachableFromMain(), withClones)) {
+        if (loopFusion.optimize(graph)) {
+          metrics.invalidate(graph);
+          framework.optimizeUntilFixedpoint(graph);
+        }
+      }
+
+      // Unswitching and unrolling only pay off after inlining, and we have to make sure to do them
+      // only once. Unswitching comes first, so that the unroller sees loops without the branch.
+      Optimizer loopUnswitching = new LoopUnswitching(metrics, profile);
+      for (Graph graph : Sets.intersection(metrics.reachableFromMain(), withClones)) {
+        if (loopUnswitching.optimize(graph)) {
+          metrics.invalidate(graph);
+          framework.optimizeUntilFixedpoint(graph);
+        }
+      }
+
+      Optimizer loopUnroller = new LoopUnroller(metrics, unrollFactor(), profile);
+      for (Graph graph : Sets.intersection(metrics.reachableFromMain(), withClones)) {
+        if (loopUnroller.optimize(graph)) {
+          metrics.invalidate(graph);
+          framework.optimizeUntilFixedpoint(graph);
+        }
+      }
+
+      // Muxes hide control flow from the other optimizations, so this comes last.
+      Optimizer ifConversion = new IfConversion();
+      Optimizer jmpBlockRemover = new JmpBlockRemover();
+      for (Graph graph : Sets.intersection(metrics.reachableFromMain(), withClones)) {
+        if (ifConversion.optimize(graph)) {
+          metrics.invalidate(graph);
+          unreachableCodeRemover.optimize(graph);
+          jmpBlockRemover.optimize(graph);
+        }
+      }
+    }
+
+    framework.logPerformanceStats();
+
+    dumpGraphsIfNeeded("after-optimizations");
+    return clones;
+  }
+
+  private static Profile profile;
+
+  /** The profile named by {@link EnvVar#MJ_PROFILE_USE}, or an empty one. */
+  static synchronized Profile profile() {
+    if (profile == null) {
+      profile = Profile.EMPTY;
+      if (EnvVar.MJ_PROFILE_USE.isAvailable()) {
+        try {
+          profile = Profile.load(new File(EnvVar.MJ_PROFILE_USE.value()));
+        } catch (IOException e) {
+          System.err.println("Warning: Ignoring the profile: " + e.getMessage());
+        }
+      }
+    }
+    return profile;
+  }
+
+  /**
+   * Whether the own backend should count block executions, see {@link EnvVar#MJ_PROFILE_GENERATE}.
+   */
+  static boolean instrumentForProfiling() {
+    return EnvVar.MJ_PROFILE_GENERATE.isSetToOne() && Platform.isLinux();
+  }
+
+  private static int unrollFactor() {
+    try {
+      return Integer.parseInt(EnvVar.MJ_OPT_UNROLL_FACTOR.value());
+    } catch (NumberFormatException e) {
+      return 4;
+    }
+  }
+
+  /** Builds the framework of intraprocedural optimizations we run for {@code level}. */
+  public static OptimizerFramework intraproceduralOptimizations(int level) {
+    return intraproceduralOptimizations(level, new MethodSummaries());
+  }
+
+  /**
+   * Like {@link #intraproceduralOptimizations(int)}, but calls are optimized according to {@code
+   * summaries}, which may be updated in between.
+   */
+  public static OptimizerFramework intraproceduralOptimizations(
+      int level, MethodSummaries summaries) {
+    // SCCP subsumes constant folding, but also has to track reachability, so it's a little slower
+    Optimizer constantFolder =
+        level > 1 ? new SparseConditionalConstantPropagation() : new ConstantFolder();
+    // GCM subsumes floating in, but also hoists arithmetic out of loops
+    Optimizer codeMotion = level > 1 ? new GlobalCodeMotion() : new FloatInTransformation();
     Optimizer loopInvariantCodeMotion = new LoopInvariantCodeMotion();
     Optimizer controlFlowOptimizer = new ConstantControlFlowOptimizer();
     Optimizer jmpBlockRemover = new JmpBlockRemover();
     Optimizer unreachableCodeRemover = new UnreachableCodeRemover();
     Optimizer expressionNormalizer = new ExpressionNormalizer();
     Optimizer algebraicSimplifier = new AlgebraicSimplifier();
-    Optimizer commonSubexpressionElimination = new CommonSubexpressionElimination();
+    Optimizer commonSubexpressionElimination = new CommonSubexpressionElimination(summaries);
     Optimizer phiOptimizer = new PhiOptimizer();
     Optimizer aliasAnalyzer = new AliasAnalyzer();
     Optimizer syncOptimizer = new SyncOptimizer();
-    Optimizer loadStoreOptimizer = new LoadStoreOptimizer();
+    Optimizer loadStoreOptimizer = new LoadStoreOptimizer(summaries);
     Optimizer criticalEdgeDetector = new CriticalEdgeDetector();
     Optimizer duplicateProjDetector = new DuplicateProjDetector();
+    Optimizer tailRecursionElimination = new TailRecursionElimination();
+    Optimizer scalarReplacement = new ScalarReplacement();
+    Optimizer partialRedundancyElimination = new PartialRedundancyElimination();
+    Optimizer jumpThreading = new JumpThreading();
+    Optimizer loopLoadStoreMotion = new LoopLoadStoreMotion();
+    Optimizer zeroingLoopRemover = new ZeroingLoopRemover();
 
     OptimizerFramework.Builder builder =
         new OptimizerFramework.Builder()
             .add(unreachableCodeRemover)
-            .dependsOn(controlFlowOptimizer, jmpBlockRemover, loopInvariantCodeMotion);
+            .dependsOn(
+                controlFlowOptimizer,
+                jmpBlockRemover,
+                jumpThreading,
+                zeroingLoopRemover,
+                loopInvariantCodeMotion,
+                tailRecursionElimination);
 
     if (EnvVar.MJ_DBG.isSetToOne()) {
       builder =
@@ -100,20 +279,47 @@ public class Compiler {
     }
 
     if (level > 1) {
-      builder = builder.add(syncOptimizer).dependsOn(aliasAnalyzer);
+      builder =
+          builder
+              .add(syncOptimizer)
+              .dependsOn(aliasAnalyzer, loopLoadStoreMotion)
+              .add(partialRedundancyElimination)
+              .dependsOn(
+                  commonSubexpressionElimination,
+                  expressionNormalizer,
+                  phiOptimizer,
+                  controlFlowOptimizer)
+              .add(jumpThreading)
+              .dependsOn(constantFolder, phiOptimizer, controlFlowOptimizer, jmpBlockRemover)
+              .add(loopLoadStoreMotion)
+              .dependsOn(
+                  aliasAnalyzer,
+                  syncOptimizer,
+                  loadStoreOptimizer,
+                  commonSubexpressionElimination,
+                  codeMotion)
+              .add(zeroingLoopRemover)
+              .dependsOn(aliasAnalyzer, syncOptimizer, loadStoreOptimizer, controlFlowOptimizer);
     }
 
     builder =
         builder
             .add(phiOptimizer)
-            .dependsOn(controlFlowOptimizer, loopInvariantCodeMotion)
+            .dependsOn(
+                controlFlowOptimizer,
+                jumpThreading,
+                loopLoadStoreMotion,
+                loopInvariantCodeMotion,
+                tailRecursionElimination,
+                scalarReplacement)
             .add(constantFolder)
             .dependsOn(
                 algebraicSimplifier,
                 phiOptimizer,
                 controlFlowOptimizer,
                 loadStoreOptimizer,
-                loopInvariantCodeMotion)
+                loopInvariantCodeMotion,
+                scalarReplacement)
             .add(expressionNormalizer)
             .dependsOn(
                 constantFolder,
@@ -133,7 +339,8 @@ public class Compiler {
                 aliasAnalyzer,
                 loadStoreOptimizer,
                 loopInvariantCodeMotion,
-                controlFlowOptimizer)
+                controlFlowOptimizer,
+                partialRedundancyElimination)
             .add(loadStoreOptimizer)
             .dependsOn(
                 commonSubexpressionElimination,
@@ -141,7 +348,7 @@ public class Compiler {
                 algebraicSimplifier,
                 aliasAnalyzer,
                 syncOptimizer)
-            .add(floatInTransformation)
+            .add(codeMotion)
             .dependsOn(
                 commonSubexpressionElimination,
                 algebraicSimplifier,
@@ -155,9 +362,15 @@ public class Compiler {
             .add(jmpBlockRemover)
             .dependsOn(
                 controlFlowOptimizer,
-                floatInTransformation,
+                codeMotion,
+                loopLoadStoreMotion,
                 loopInvariantCodeMotion,
-                loadStoreOptimizer);
+                loadStoreOptimizer,
+                tailRecursionElimination)
+            .add(tailRecursionElimination)
+            .dependsOn(controlFlowOptimizer, jmpBlockRemover, loadStoreOptimizer)
+            .add(scalarReplacement)
+            .dependsOn(constantFolder, aliasAnalyzer, syncOptimizer, loadStoreOptimizer);
 
     if (level > 2) {
       builder =
@@ -168,44 +381,7 @@ public class Compiler {
       //.dependsOn() // Dito
     }
 
-    OptimizerFramework framework = builder.build();
-
-    ProgramMetrics metrics = ProgramMetrics.analyse(Program.getGraphs());
-    Set<Graph> intraproceduralCandidates = Sets.newHashSet(Program.getGraphs());
-    Inliner inliner = new Inliner(metrics, true);
-    ScheduledFuture<?> timer =
-        Executors.newScheduledThreadPool(1).schedule(Runnables.doNothing(), 9, TimeUnit.MINUTES);
-    while (!timer.isDone()) {
-      Set<Graph> reachable = metrics.reachableFromMain();
-
-      for (Graph graph : Sets.intersection(intraproceduralCandidates, reachable)) {
-        framework.optimizeUntilFixedpoint(graph);
-      }
-
-      // Here comes the interprocedural stuff... This is method is really turning into a mess
-      Cli.dumpGraphsIfNeeded("before-Inliner");
-      intraproceduralCandidates.clear();
-      for (Graph graph : reachable) {
-        boolean hasChanged = inliner.optimize(graph);
-        if (hasChanged) {
-          intraproceduralCandidates.add(graph);
-        }
-        unreachableCodeRemover.optimize(graph);
-      }
-
-      reachable.forEach(metrics::updateGraphInfo);
-      if (intraproceduralCandidates.isEmpty()) {
-        if (inliner.onlyLeafs) {
-          inliner = new Inliner(metrics, false);
-        } else {
-          break;
-        }
-      }
-    }
-
-    framework.logPerformanceStats();
-
-    dumpGraphsIfNeeded("after-optimizations");
+    return builder.build();
   }
 
   public static void produceFirmIR(InputStream in, int optimizationLevel) {
@@ -218,23 +394,50 @@ public class Compiler {
     }
   }
 
-  public static void compile(Backend backend, String outFile, boolean produceDebuggableBinary)
+  public static void compile(
+      Backend backend, String outFile, int optimizationLevel, boolean produceDebuggableBinary)
       throws IOException {
-    lower();
+    lower(optimizationLevel);
     Cli.dumpGraphsIfNeeded("after-lowering");
     String asmFile = backend.lowerToAssembler(outFile);
     assemble(asmFile, outFile, produceDebuggableBinary);
   }
 
-  private static void lower() {
+  private static void lower(int optimizationLevel) {
+    if (optimizationLevel > 0) {
+      removeUnreachableGraphs();
+    }
+    lower(Sets.newHashSet(Program.getGraphs()), optimizationLevel);
+  }
+
+  /**
+   * Frees the graphs of all methods which can't be called from main (anymore), e.g. because all
+   * calls to them were inlined. Both backends generate code for every graph of the program, so this
+   * saves compile time and binary size.
+   *
+   * <p>This needs the whole program to be optimized. Within a worker of {@link
+   * ParallelOptimization}, other shards might still call what looks unreachable here.
+   */
+  static void removeUnreachableGraphs() {
+    Set<Graph> reachable = ProgramMetrics.analyse(Program.getGraphs()).reachableFromMain();
+    seq(Program.getGraphs()).removeAll(reachable).toList().forEach(GraphUtils::freeGraph);
+  }
+
+  /** Lowers all graphs, but only does the clean up optimizations on {@code graphs}. */
+  static void lower(Set<Graph> graphs, int optimizationLevel) {
     Util.lowerSels();
     // lowering Member and Sel nodes might result in constant expressions like this + (4 * 2).
     // This shouldn't take long to rectify.
     ConstantFolder constantFolder = new ConstantFolder();
     ExpressionNormalizer normalizer = new ExpressionNormalizer();
     AlgebraicSimplifier simplifier = new AlgebraicSimplifier();
+    OptimizerFramework.Builder builder = new OptimizerFramework.Builder();
+    if (optimizationLevel > 0) {
+      // Address arithmetic of array accesses is only visible now, so this is the time to reduce it.
+      builder = builder.add(new StrengthReduction()).dependsOn();
+    }
     OptimizerFramework framework =
-        new OptimizerFramework.Builder()
+        builder
             .add(constantFolder)
             .dependsOn()
             .add(normalizer)
@@ -242,13 +445,12 @@ public class Compiler {
             .add(simplifier)
             .dependsOn(normalizer, constantFolder)
             .build();
-    ProgramMetrics.analyse(Program.getGraphs())
-        .reachableFromMain()
-        .forEach(framework::optimizeUntilFixedpoint);
+    Set<Graph> reachable = ProgramMetrics.analyse(Program.getGraphs()).reachableFromMain();
+    Sets.intersection(reachable, graphs).forEach(framework::optimizeUntilFixedpoint);
   }
 
-  private static void assemble(
-      String assemblerFile, String outputFile, boolean produceDebuggableBinary) throws IOException {
+  static void assemble(String assemblerFile, String outputFile, boolean produceDebuggableBinary)
+      throws IOException {
     File runtime = getRuntimeFile();
 
     boolean useGC = EnvVar.MJ_USE_GC.isSetToOne();
@@ -334,7 +536,11 @@ public class Compiler {
 
     public void printAsm(OutputStream out, Optional<OutputStream> preAsmOut) {
       Tuple2<AssemblerFile, AssemblerFile> preAsmAndAsmFile =
-          AssemblerFile.createForProgram(OnTheFlyRegAllocator::new);
+          AssemblerFile.createForProgram(
+              OnTheFlyRegAllocator::new,
+              EnvVar.MJ_SIBLING_CALLS.isSetToOne(),
+              profile(),
+              instrumentForProfiling());
       AssemblerFile preAsmFile = preAsmAndAsmFile.v1;
       new PrintStream(preAsmOut.orElse(System.err)).println(preAsmFile.toGNUAssembler());
       AssemblerFile file = preAsmAndAsmFile.v2;
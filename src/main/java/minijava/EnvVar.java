@@ -5,6 +5,19 @@ import java.util.ArrayList;
 public enum EnvVar {
   MJ_OPTIMIZE("Set to \"0\" to turn off optimizations in general."),
   MJ_OPT_USE_INLINER("Set to \"0\" to turn off inliner in optimizations."),
+  MJ_OPT_WORKERS(
+      "Set to a number greater than \"1\" to optimize the program in that many worker processes."),
+  MJ_OPT_UNROLL_FACTOR(
+      "The number of times counted loops are unrolled at -O2 and above. "
+          + "Set to \"1\" to turn off loop unrolling."),
+  MJ_SIBLING_CALLS(
+      "Set to \"1\" to emit calls directly followed by a return as jumps in our own backend."),
+  MJ_PROFILE_GENERATE(
+      "Set to \"1\" to let our own backend count how often blocks and branches run. The binary "
+          + "writes the counts to $MJ_PROFILE_FILE or mj_profile.txt at exit. Linux only."),
+  MJ_PROFILE_USE(
+      "The path to the counts written by a binary built with MJ_PROFILE_GENERATE, which guide "
+          + "inlining, loop unrolling and the block layout of our own backend."),
   MJ_GRAPH("Set to \"1\" to turn on graph printing."),
   MJ_DBG,
   MJ_USE_GC("Set to \"1\" to use the bdwgc."),
@@ -0,0 +1,183 @@
+package minijava;
+
+import static org.jooq.lambda.Seq.seq;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import firm.Graph;
+import firm.Program;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import minijava.ir.assembler.allocator.OnTheFlyRegAllocator;
+import minijava.ir.assembler.block.AssemblerFile;
+import minijava.ir.optimize.ProgramMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Optimizes and generates code for the graphs of a program in multiple worker processes.
+ *
+ * <p>libfirm isn't thread-safe, so we can't just spawn threads. Instead, the graphs are sharded by
+ * the strongly connected components of the call graph and each shard is handed to a separate JVM,
+ * which re-runs the front end on the same source file, optimizes only the graphs of its shard and
+ * prints their assembly (produced by our own backend) to a file. The parent process concatenates
+ * those files and assembles the result.
+ */
+public class ParallelOptimization {
+  private static final Logger LOGGER = LoggerFactory.getLogger("ParallelOptimization");
+
+  /** Reads the number of worker processes to use from {@link EnvVar#MJ_OPT_WORKERS}. */
+  public static int numberOfWorkers() {
+    try {
+      return Math.max(1, Integer.parseInt(EnvVar.MJ_OPT_WORKERS.value()));
+    } catch (NumberFormatException e) {
+      return 1;
+    }
+  }
+
+  public static void compile(
+      Path sourceFile,
+      int optimizationLevel,
+      int workers,
+      String outFile,
+      boolean produceDebuggableBinary)
+      throws IOException {
+    try (InputStream in = java.nio.file.Files.newInputStream(sourceFile)) {
+      Compiler.produceFirmIR(in, 0);
+    }
+
+    List<Set<Graph>> shards = shard(ProgramMetrics.analyse(Program.getGraphs()), workers);
+    List<Process> processes = new ArrayList<>();
+    List<File> outputs = new ArrayList<>();
+    File tmpDir = Files.createTempDir();
+    tmpDir.deleteOnExit();
+    for (int i = 0; i < shards.size(); ++i) {
+      File shardFile = new File(tmpDir, "shard" + i);
+      File output = new File(tmpDir, "shard" + i + ".s");
+      shardFile.deleteOnExit();
+      output.deleteOnExit();
+      Files.write(
+          String.join("\n", seq(shards.get(i)).map(g -> g.getEntity().getLdName())),
+          shardFile,
+          Charsets.UTF_8);
+      outputs.add(output);
+      processes.add(
+          startWorker(
+              sourceFile.toAbsolutePath().toString(),
+              optimizationLevel,
+              shardFile.getAbsolutePath(),
+              output.getAbsolutePath()));
+    }
+
+    AssemblerFile header = new AssemblerFile();
+    if (EnvVar.MJ_FILENAME.isAvailable()) {
+      header.setFileName(EnvVar.MJ_FILENAME.value());
+    }
+    StringBuilder asm = new StringBuilder(header.toGNUAssembler());
+    for (int i = 0; i < processes.size(); ++i) {
+      int exitCode;
+      try {
+        exitCode = processes.get(i).waitFor();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      if (exitCode != 0) {
+        throw new RuntimeException(
+            "Optimization worker " + i + " failed with exit code " + exitCode);
+      }
+      asm.append(Files.toString(outputs.get(i), Charsets.UTF_8));
+    }
+
+    File asmFile = new File(outFile + ".s");
+    Files.write(asm.append('\n'), asmFile, Charsets.UTF_8);
+    Compiler.assemble(asmFile.getName(), outFile, produceDebuggableBinary);
+  }
+
+  /**
+   * Distributes the strongly connected components of the call graph onto {@code workers} shards, so
+   * that the summed up graph sizes are roughly balanced. Components are assigned greedily, biggest
+   * first, to the currently smallest shard. Components which aren't reachable from main don't end
+   * up in any shard.
+   */
+  static List<Set<Graph>> shard(ProgramMetrics metrics, int workers) {
+    List<Set<Graph>> components = new ArrayList<>(metrics.stronglyConnectedComponents());
+    // Optimizations never make a method reachable which wasn't before, so we can leave out all
+    // components which aren't reachable from main right from the start.
+    components.removeIf(c -> !metrics.reachableFromMain().containsAll(c));
+    Comparator<Set<Graph>> bySize = Comparator.comparingInt(c -> size(metrics, c));
+    components.sort(bySize.reversed());
+
+    List<Set<Graph>> shards = new ArrayList<>();
+    for (int i = 0; i < Math.min(workers, components.size()); ++i) {
+      shards.add(new HashSet<>());
+    }
+    for (Set<Graph> component : components) {
+      seq(shards).minBy(s -> size(metrics, s)).get().addAll(component);
+    }
+    return shards;
+  }
+
+  private static int size(ProgramMetrics metrics, Set<Graph> graphs) {
+    return seq(graphs).mapToInt(g -> metrics.getGraphInfo(g).size).sum();
+  }
+
+  private static Process startWorker(
+      String sourceFile, int optimizationLevel, String shardFile, String outFile)
+      throws IOException {
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    // This passes on flags like -Djna.library.path and -ea
+    command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(Main.class.getName());
+    command.add("-O");
+    command.add(Integer.toString(optimizationLevel));
+    command.add("--opt-worker-shard");
+    command.add(shardFile);
+    command.add("--opt-worker-out");
+    command.add(outFile);
+    command.add(sourceFile);
+    LOGGER.debug("Starting worker: " + String.join(" ", command));
+    return new ProcessBuilder(command)
+        .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+  }
+
+  /**
+   * Entry point of a worker process: Optimizes the graphs named in {@code shardFile} and writes
+   * their assembly to {@code outFile}.
+   */
+  static void runWorker(InputStream in, int optimizationLevel, String shardFile, String outFile)
+      throws IOException {
+    Set<String> names = new HashSet<>(Files.readLines(new File(shardFile), Charsets.UTF_8));
+    Compiler.produceFirmIR(in, 0);
+    Set<Graph> shard =
+        seq(Program.getGraphs()).filter(g -> names.contains(g.getEntity().getLdName())).toSet();
+    // Specialized clones of callees belong to the shard which called for them.
+    shard.addAll(Compiler.optimize(optimizationLevel, shard));
+    Compiler.lower(shard, optimizationLevel);
+    AssemblerFile file =
+        AssemblerFile.createForGraphs(
+                seq(Program.getGraphs()).filter(shard::contains),
+                OnTheFlyRegAllocator::new,
+                EnvVar.MJ_SIBLING_CALLS.isSetToOne(),
+                Compiler.profile(),
+                Compiler.instrumentForProfiling())
+            .v2;
+    try (PrintStream out = new PrintStream(new File(outFile), "UTF-8")) {
+      out.print(file.segmentsToGNUAssembler());
+    }
+  }
+}
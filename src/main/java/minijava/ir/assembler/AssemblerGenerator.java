@@ -18,12 +18,16 @@ import minijava.ir.assembler.instructions.Div;
 import minijava.ir.assembler.instructions.Jmp;
 import minijava.ir.assembler.instructions.Mul;
 import minijava.ir.assembler.instructions.Set;
+import minijava.ir.assembler.instructions.Shr;
 import minijava.ir.assembler.instructions.Sub;
 import minijava.ir.assembler.location.*;
 import minijava.ir.emit.Types;
 import minijava.ir.utils.FirmUtils;
 import minijava.ir.utils.GraphUtils;
 import minijava.ir.utils.MethodInformation;
+import minijava.ir.utils.NodeUtils;
+import minijava.ir.utils.Profile;
+import minijava.ir.utils.ProfileKeys;
 
 /**
  * Generates GNU assembler for a graph
@@ -44,9 +48,35 @@ public class AssemblerGenerator extends NodeVisitor.Default {
   private CodeSegment segment;
   private Map<Integer, CodeBlock> blocksToCodeBlocks;
   private static Map<Phi, Boolean> isPhiProneToLostCopies;
+  /** Whether calls directly followed by a return should be emitted as jumps. */
+  private final boolean emitSiblingCalls;
+  /** Block and edge counts of a previous run, which determine the order of the code blocks. */
+  private final Profile profile;
+  /** Whether code blocks should increment their profile counters. */
+  private final boolean instrument;
+  /** The {@link ProfileKeys} of code blocks, or the ldName for the start block. */
+  private final Map<CodeBlock, String> blockKeys = new HashMap<>();
+  /** The {@link ProfileKeys#edgeKey} of the only edge into code blocks which are Cond targets. */
+  private final Map<CodeBlock, String> edgeKeys = new HashMap<>();
+  /** The symbols of the profile counters of this segment, mapped to their keys. */
+  private final Map<String, String> profileCounters = new LinkedHashMap<>();
+  /** Returns which don't need any code, because the preceding call was turned into a jump. */
+  private final java.util.Set<Return> returnsOfTailCalls = new HashSet<>();
 
   public AssemblerGenerator(Graph graph) {
+    this(graph, false);
+  }
+
+  public AssemblerGenerator(Graph graph, boolean emitSiblingCalls) {
+    this(graph, emitSiblingCalls, Profile.EMPTY, false);
+  }
+
+  public AssemblerGenerator(
+      Graph graph, boolean emitSiblingCalls, Profile profile, boolean instrument) {
     this.graph = graph;
+    this.emitSiblingCalls = emitSiblingCalls;
+    this.profile = profile;
+    this.instrument = instrument;
     this.info = new MethodInformation(graph);
     this.allocator = new NodeAllocator(graph);
     isPhiProneToLostCopies = new HashMap<>();
@@ -60,13 +90,58 @@ public class AssemblerGenerator extends NodeVisitor.Default {
     FirmUtils.withBackEdges(
         graph, () -> GraphUtils.topologicalOrder(graph).forEach(n -> n.accept(this)));
     prependStartBlockWithPrologue();
+    if (instrument) {
+      for (CodeBlock block : segment.getBlocks()) {
+        if (blockKeys.containsKey(block)) {
+          addProfileCounter(block, Profile.counterSymbol(block.label), blockKeys.get(block));
+        }
+        if (edgeKeys.containsKey(block)) {
+          addProfileCounter(block, Profile.edgeCounterSymbol(block.label), edgeKeys.get(block));
+        }
+      }
+    }
+    if (profile.entryCount(info.ldName).isPresent()) {
+      segment.reorderBlocks(getCodeBlock(graph.getStartBlock()), this::profiledFrequency);
+    }
     return segment;
   }
 
+  /** The symbols of the counters added when instrumenting, mapped to their profile keys. */
+  public Map<String, String> getProfileCounters() {
+    return profileCounters;
+  }
+
+  private void addProfileCounter(CodeBlock block, String symbol, String key) {
+    block.addBlockStartInstruction(new IncrementCounter(symbol));
+    profileCounters.put(symbol, key);
+  }
+
+  /**
+   * How often {@code block} was entered in the profiled run. Branch targets are only entered by
+   * their edge, so we prefer the edge count. Blocks without a known key didn't exist when
+   * profiling, so they are probably cold anyway.
+   */
+  private long profiledFrequency(CodeBlock block) {
+    OptionalLong count = OptionalLong.empty();
+    if (edgeKeys.containsKey(block)) {
+      count = profile.count(edgeKeys.get(block));
+    }
+    if (!count.isPresent() && blockKeys.containsKey(block)) {
+      count = profile.count(blockKeys.get(block));
+    }
+    return count.orElse(0);
+  }
+
   private CodeBlock getCodeBlock(Block block) {
     if (!blocksToCodeBlocks.containsKey(block.getNr())) {
-      blocksToCodeBlocks.put(block.getNr(), new CodeBlock(getLabelForBlock(block)));
-      segment.addBlock(blocksToCodeBlocks.get(block.getNr()));
+      CodeBlock codeBlock = new CodeBlock(getLabelForBlock(block));
+      blocksToCodeBlocks.put(block.getNr(), codeBlock);
+      segment.addBlock(codeBlock);
+      if (block.getNr() == graph.getStartBlock().getNr()) {
+        blockKeys.put(codeBlock, info.ldName);
+      } else {
+        ProfileKeys.of(block).ifPresent(key -> blockKeys.put(codeBlock, key));
+      }
     }
     return blocksToCodeBlocks.get(block.getNr());
   }
@@ -125,6 +200,13 @@ public class AssemblerGenerator extends NodeVisitor.Default {
     assert args.size() == 2;
     Argument firstArg = args.get(0);
     Argument secondArg = args.get(1);
+    // The divisor is the third pred, after the memory and the dividend.
+    Optional<Const> divisor = NodeUtils.asConst(node.getPred(2));
+    if (divisor.isPresent() && MagicDivisor.isApplicable(divisor.get().getTarval().asLong())) {
+      MagicDivisor magic = MagicDivisor.of(divisor.get().getTarval().asInt());
+      divideByConstant(node, isDiv, magic, firstArg, res, block);
+      return;
+    }
     List<Register> usedRegisters = ImmutableList.of(Register.EAX, Register.EBX, Register.EDX);
     block.add(new Evict(usedRegisters));
     block.add(new DisableRegisterUsage(usedRegisters));
@@ -146,6 +228,68 @@ public class AssemblerGenerator extends NodeVisitor.Default {
     block.add(new EnableRegisterUsage(usedRegisters));
   }
 
+  /**
+   * Replaces the slow idiv by a multiplication with the magic number of the constant divisor, see
+   * {@link MagicDivisor#divide(int)}. The remainder is then computed from the quotient.
+   */
+  private void divideByConstant(
+      Node node,
+      boolean isDiv,
+      MagicDivisor magic,
+      Argument dividend,
+      Location res,
+      CodeBlock block) {
+    List<Register> usedRegisters = ImmutableList.of(Register.EAX, Register.EBX, Register.EDX);
+    block.add(new Evict(usedRegisters));
+    block.add(new DisableRegisterUsage(usedRegisters));
+    block.add(
+        new Mov(dividend, Register.EBX.ofWidth(dividend.width))
+            .com("Copy the dividend")
+            .firm(node));
+    block.add(
+        new Mov(new ConstArgument(Register.Width.Long, magic.magic), Register.EAX)
+            .com(String.format("Magic number for division by %d", magic.divisor)));
+    block.add(new WideMul(Register.EBX).com("the upper half of the product is in EDX"));
+    if (magic.addsDividend()) {
+      block.add(new Add(Register.EBX, Register.EDX));
+    } else if (magic.subtractsDividend()) {
+      block.add(new Sub(Register.EBX, Register.EDX));
+    }
+    if (magic.shift > 0) {
+      block.add(new Sar(magic.shift, Register.EDX));
+    }
+    block.add(new Mov(Register.EDX, Register.EAX));
+    block.add(new Shr(31, Register.EAX).com("1 iff the quotient is negative"));
+    block.add(new Add(Register.EAX, Register.EDX).com("round the quotient towards zero"));
+    if (isDiv) {
+      block.add(new Mov(Register.EDX, res).com(String.format("Move result into %s", res)));
+    } else {
+      block.add(new Mul(new ConstArgument(Register.Width.Long, magic.divisor), Register.EDX));
+      block.add(
+          new Sub(Register.EDX, Register.EBX)
+              .com("the remainder is dividend - quotient * divisor"));
+      block.add(new Mov(Register.EBX, res).com(String.format("Move result into %s", res)));
+    }
+    block.add(new EnableRegisterUsage(usedRegisters));
+  }
+
+  @Override
+  public void visit(Mux node) {
+    // There's no cmov with a constant source, so we need an extra location for the true value.
+    firm.nodes.Cmp cmp = (firm.nodes.Cmp) node.getSel();
+    Location res = allocator.getLocation(node);
+    Location trueValue = new NodeLocation(res.width, allocator.genLocationId());
+    CodeBlock block = getCodeBlockForNode(node);
+    block.add(new Mov(allocator.getAsArgument(node.getFalse()), res).firm(node));
+    block.add(new Mov(allocator.getAsArgument(node.getTrue()), trueValue));
+    // we have to swap the arguments of the cmp instruction, see visit(Block)
+    block.addInlineCompare(
+        (Cmp)
+            new Cmp(allocator.getAsArgument(cmp.getRight()), allocator.getAsArgument(cmp.getLeft()))
+                .firm(cmp));
+    block.add(new CMov(cmp.getRelation(), trueValue, res));
+  }
+
   @Override
   public void visit(firm.nodes.Minus node) {
     // Note: this method handles the arithmetic negation (unary minus) operation
@@ -194,6 +338,10 @@ public class AssemblerGenerator extends NodeVisitor.Default {
 
   @Override
   public void visit(Return node) {
+    if (returnsOfTailCalls.contains(node)) {
+      // The callee already returned to our caller
+      return;
+    }
     CodeBlock codeBlock = getCodeBlockForNode(node);
     if (node.getPredCount() > 1) {
       // we only need this if the return actually returns a value
@@ -216,6 +364,20 @@ public class AssemblerGenerator extends NodeVisitor.Default {
     MethodInformation info = new MethodInformation(node);
     List<Argument> args = allocator.getArguments(node);
     CodeBlock block = getCodeBlockForNode(node);
+    Optional<Return> tailReturn =
+        emitSiblingCalls ? returnInTailPosition(node, info) : Optional.empty();
+    if (tailReturn.isPresent()) {
+      returnsOfTailCalls.add(tailReturn.get());
+      block.add(
+          new MetaCall(args, Optional.empty(), info, true)
+              .firm(node)
+              .com(
+                  "tail call -> "
+                      + info.ldName
+                      + " "
+                      + args.stream().map(Argument::toString).collect(Collectors.joining("|"))));
+      return;
+    }
     Optional<Location> ret = Optional.empty();
     if (info.hasReturnValue) {
       ret = Optional.of(allocator.getResultLocation(node));
@@ -236,6 +398,38 @@ public class AssemblerGenerator extends NodeVisitor.Default {
     }
   }
 
+  /**
+   * Finds the Return which directly follows {@code call} and returns nothing or the result of the
+   * call. We can only jump to the callee if all its arguments are passed in registers, otherwise we
+   * would have to overwrite our own stack arguments.
+   */
+  private Optional<Return> returnInTailPosition(firm.nodes.Call call, MethodInformation info) {
+    if (info.paramNumber > Register.methodArgumentQuadRegisters.size()) {
+      return Optional.empty();
+    }
+    for (BackEdges.Edge memEdge : BackEdges.getOuts(call)) {
+      if (!memEdge.node.getMode().equals(Mode.getM())) {
+        continue;
+      }
+      for (BackEdges.Edge usage : BackEdges.getOuts(memEdge.node)) {
+        if (!(usage.node instanceof Return) || !usage.node.getBlock().equals(call.getBlock())) {
+          continue;
+        }
+        Return ret = (Return) usage.node;
+        if (ret.getPredCount() == 1) {
+          return Optional.of(ret);
+        }
+        Node result = ret.getPred(1);
+        if (result instanceof Proj
+            && result.getPred(0) instanceof Proj
+            && result.getPred(0).getPred(0).equals(call)) {
+          return Optional.of(ret);
+        }
+      }
+    }
+    return Optional.empty();
+  }
+
   @Override
   public void visit(Block node) {
     CodeBlock codeBlock = getCodeBlock(node);
@@ -254,6 +448,10 @@ public class AssemblerGenerator extends NodeVisitor.Default {
         boolean isTrueEdge = proj.getNum() == 1;
         // the condition
         Cond cond = (Cond) proj.getPred();
+        if (node.getPredCount() == 1) {
+          ProfileKeys.of(cond)
+              .ifPresent(key -> edgeKeys.put(codeBlock, ProfileKeys.edgeKey(key, isTrueEdge)));
+        }
 
         if (cond.getSelector() instanceof firm.nodes.Cmp) {
           // we ignore it as we're really interested in the preceding compare node
@@ -0,0 +1,93 @@
+package minijava.ir.assembler;
+
+/**
+ * The magic number and shift amount which replace a signed 32 bit division by a constant with a
+ * multiplication, see chapter 10 of <i>Hacker's Delight</i>.
+ *
+ * <p>{@link #divide(int)} is the reference for the instruction sequence emitted by the {@link
+ * AssemblerGenerator}:
+ *
+ * <ol>
+ *   <li>Take the upper 32 bits of the 64 bit product of the magic number and the dividend.
+ *   <li>Add the dividend to it for positive divisors with a negative magic number, subtract it for
+ *       negative divisors with a positive magic number.
+ *   <li>Shift it arithmetically to the right by the shift amount.
+ *   <li>Add 1 if it is negative, so that the quotient is rounded towards zero.
+ * </ol>
+ */
+public class MagicDivisor {
+  public final int divisor;
+  public final int magic;
+  public final int shift;
+
+  private MagicDivisor(int divisor, int magic, int shift) {
+    this.divisor = divisor;
+    this.magic = magic;
+    this.shift = shift;
+  }
+
+  /** Whether division by {@code divisor} can be replaced. 0, 1 and -1 are left to idiv. */
+  public static boolean isApplicable(long divisor) {
+    return divisor >= Integer.MIN_VALUE
+        && divisor <= Integer.MAX_VALUE
+        && (divisor > 1 || divisor < -1);
+  }
+
+  public static MagicDivisor of(int divisor) {
+    if (!isApplicable(divisor)) {
+      throw new IllegalArgumentException("Can't replace division by " + divisor);
+    }
+    final int two31 = 0x80000000;
+    // All of this is unsigned arithmetic. Math.abs(MIN_VALUE) is 2^31 unsigned, just as we want.
+    int ad = Math.abs(divisor);
+    int t = two31 + (divisor >>> 31);
+    // The absolute value of the biggest dividend n with n % divisor = divisor - 1
+    int anc = t - 1 - Integer.remainderUnsigned(t, ad);
+    int p = 31;
+    int q1 = Integer.divideUnsigned(two31, anc);
+    int r1 = two31 - q1 * anc;
+    int q2 = Integer.divideUnsigned(two31, ad);
+    int r2 = two31 - q2 * ad;
+    int delta;
+    do {
+      p++;
+      q1 *= 2;
+      r1 *= 2;
+      if (Integer.compareUnsigned(r1, anc) >= 0) {
+        q1++;
+        r1 -= anc;
+      }
+      q2 *= 2;
+      r2 *= 2;
+      if (Integer.compareUnsigned(r2, ad) >= 0) {
+        q2++;
+        r2 -= ad;
+      }
+      delta = ad - r2;
+    } while (Integer.compareUnsigned(q1, delta) < 0 || (q1 == delta && r1 == 0));
+    int magic = q2 + 1;
+    return new MagicDivisor(divisor, divisor < 0 ? -magic : magic, p - 32);
+  }
+
+  /** Whether the dividend has to be added to the upper half of the product. */
+  public boolean addsDividend() {
+    return divisor > 0 && magic < 0;
+  }
+
+  /** Whether the dividend has to be subtracted from the upper half of the product. */
+  public boolean subtractsDividend() {
+    return divisor < 0 && magic > 0;
+  }
+
+  /** Computes {@code dividend / divisor} just like the emitted instructions. */
+  public int divide(int dividend) {
+    int q = (int) (((long) magic * dividend) >> 32);
+    if (addsDividend()) {
+      q += dividend;
+    } else if (subtractsDividend()) {
+      q -= dividend;
+    }
+    q >>= shift;
+    return q + (q >>> 31);
+  }
+}
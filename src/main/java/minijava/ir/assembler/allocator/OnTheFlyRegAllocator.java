@@ -397,6 +397,12 @@ public class OnTheFlyRegAllocator extends AbstractRegAllocator
     return ImmutableList.of(cltd);
   }
 
+  @Override
+  public List<Instruction> visit(CMov cmov) {
+    return visitBinaryInstruction(
+        cmov, cmov.source, cmov.destination, (l, r) -> new CMov(cmov.relation, l, r), true);
+  }
+
   @Override
   public List<Instruction> visit(Cmp cmp) {
     return visitBinaryInstruction(cmp, Cmp::new);
@@ -435,6 +441,16 @@ public class OnTheFlyRegAllocator extends AbstractRegAllocator
     return ImmutableList.of(jmp);
   }
 
+  @Override
+  public List<Instruction> visit(TailJmp jmp) {
+    return ImmutableList.of(jmp);
+  }
+
+  @Override
+  public List<Instruction> visit(IncrementCounter incrementCounter) {
+    return ImmutableList.of(incrementCounter);
+  }
+
   /** Returns the current location of the argument and doesn't generate any code. */
   private Argument getCurrentLocation(Argument arg) {
     if (arg instanceof NodeLocation) {
@@ -457,6 +473,9 @@ public class OnTheFlyRegAllocator extends AbstractRegAllocator
 
   @Override
   public List<Instruction> visit(MetaCall metaCall) {
+    if (metaCall.isTailCall) {
+      return visitTailCall(metaCall);
+    }
     List<Register> argRegs = Register.methodArgumentQuadRegisters;
     List<Instruction> instructions = new ArrayList<>();
     // we evict all argument passing registers
@@ -538,6 +557,34 @@ public class OnTheFlyRegAllocator extends AbstractRegAllocator
     return instructions;
   }
 
+  /**
+   * Moves the arguments into their registers, tears down the activation record and jumps to the
+   * callee, which then returns directly to our caller.
+   */
+  private List<Instruction> visitTailCall(MetaCall metaCall) {
+    List<Register> argRegs = Register.methodArgumentQuadRegisters;
+    assert metaCall.methodInfo.paramNumber <= argRegs.size();
+    List<Instruction> instructions = new ArrayList<>();
+    argRegs.stream().map(this::evictFromRegister).forEach(o -> o.ifPresent(instructions::add));
+    for (int i = 0; i < metaCall.methodInfo.paramNumber; i++) {
+      Argument arg = metaCall.args.get(i);
+      if (getCurrentLocation(arg) != null) {
+        instructions.add(
+            new Mov(getCurrentLocation(arg), argRegs.get(i).ofWidth(arg.width))
+                .com(String.format("Move %d.th param into register", i)));
+      }
+    }
+    instructions.add(
+        new Mov(Register.BASE_POINTER, Register.STACK_POINTER)
+            .com("Copy base pointer to stack pointer (free stack)"));
+    instructions.add(new Pop(Register.BASE_POINTER).com("Restore previous base pointer"));
+    instructions.add(
+        new TailJmp(metaCall.methodInfo.ldName)
+            .com("Tail call, the callee returns to our caller")
+            .firm(metaCall.firm()));
+    return instructions;
+  }
+
   @Override
   public List<Instruction> visit(Mov mov) {
     return visitMovLikeBinaryInstruction(mov, mov.source, mov.destination, Mov::new);
@@ -563,6 +610,21 @@ public class OnTheFlyRegAllocator extends AbstractRegAllocator
     return visitUnaryInstruction(neg, neg.arg, Neg::new);
   }
 
+  @Override
+  public List<Instruction> visit(Sar sar) {
+    return visitUnaryInstruction(sar, sar.arg, r -> new Sar(sar.amount, r));
+  }
+
+  @Override
+  public List<Instruction> visit(Shr shr) {
+    return visitUnaryInstruction(shr, shr.arg, r -> new Shr(shr.amount, r));
+  }
+
+  @Override
+  public List<Instruction> visit(WideMul mul) {
+    return ImmutableList.of(mul);
+  }
+
   @Override
   public List<Instruction> visit(Pop pop) {
     return visitUnaryInstruction(pop, pop.arg, Pop::new);
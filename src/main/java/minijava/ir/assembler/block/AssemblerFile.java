@@ -10,6 +10,7 @@ import minijava.ir.assembler.NodeAllocator;
 import minijava.ir.assembler.allocator.AbstractRegAllocator;
 import minijava.ir.emit.NameMangler;
 import minijava.ir.utils.MethodInformation;
+import minijava.ir.utils.Profile;
 import org.jetbrains.annotations.NotNull;
 import org.jooq.lambda.function.Function3;
 import org.jooq.lambda.tuple.Tuple2;
@@ -107,6 +108,16 @@ public class AssemblerFile implements GNUAssemblerConvertible, Collection<Segmen
       builder.append("    .file \"" + fileName + "\"\n");
     }
     builder.append(getGNUAssemblerFilePrologue());
+    builder.append(segmentsToGNUAssembler());
+    return builder.toString();
+  }
+
+  /**
+   * Like {@link #toGNUAssembler()}, but without the file prologue. Useful for appending segments to
+   * a file which was generated elsewhere.
+   */
+  public String segmentsToGNUAssembler() {
+    StringBuilder builder = new StringBuilder();
     for (Segment segment : segments) {
       builder.append("\n\n").append(segment.toGNUAssembler());
     }
@@ -131,11 +142,70 @@ public class AssemblerFile implements GNUAssemblerConvertible, Collection<Segmen
   public static Tuple2<AssemblerFile, AssemblerFile> createForProgram(
       Function3<MethodInformation, LinearCodeSegment, NodeAllocator, AbstractRegAllocator>
           regAllocatorConstructor) {
+    return createForProgram(regAllocatorConstructor, false);
+  }
+
+  /**
+   * @param emitSiblingCalls Whether to emit calls which are directly followed by a return as jumps
+   * @return (pre asm, real asm)
+   */
+  public static Tuple2<AssemblerFile, AssemblerFile> createForProgram(
+      Function3<MethodInformation, LinearCodeSegment, NodeAllocator, AbstractRegAllocator>
+          regAllocatorConstructor,
+      boolean emitSiblingCalls) {
+    return createForProgram(regAllocatorConstructor, emitSiblingCalls, Profile.EMPTY, false);
+  }
+
+  /**
+   * @param emitSiblingCalls Whether to emit calls which are directly followed by a return as jumps
+   * @param profile Counts of a previous run, which determine the order of code blocks
+   * @param instrument Whether to count executions of blocks and branches, see {@link Profile}
+   * @return (pre asm, real asm)
+   */
+  public static Tuple2<AssemblerFile, AssemblerFile> createForProgram(
+      Function3<MethodInformation, LinearCodeSegment, NodeAllocator, AbstractRegAllocator>
+          regAllocatorConstructor,
+      boolean emitSiblingCalls,
+      Profile profile,
+      boolean instrument) {
+    return createForGraphs(
+        Program.getGraphs(), regAllocatorConstructor, emitSiblingCalls, profile, instrument);
+  }
+
+  /** @return (pre asm, real asm) for only the passed graphs */
+  public static Tuple2<AssemblerFile, AssemblerFile> createForGraphs(
+      Iterable<Graph> graphs,
+      Function3<MethodInformation, LinearCodeSegment, NodeAllocator, AbstractRegAllocator>
+          regAllocatorConstructor) {
+    return createForGraphs(graphs, regAllocatorConstructor, false);
+  }
+
+  /** @return (pre asm, real asm) for only the passed graphs */
+  public static Tuple2<AssemblerFile, AssemblerFile> createForGraphs(
+      Iterable<Graph> graphs,
+      Function3<MethodInformation, LinearCodeSegment, NodeAllocator, AbstractRegAllocator>
+          regAllocatorConstructor,
+      boolean emitSiblingCalls) {
+    return createForGraphs(graphs, regAllocatorConstructor, emitSiblingCalls, Profile.EMPTY, false);
+  }
+
+  /** @return (pre asm, real asm) for only the passed graphs */
+  public static Tuple2<AssemblerFile, AssemblerFile> createForGraphs(
+      Iterable<Graph> graphs,
+      Function3<MethodInformation, LinearCodeSegment, NodeAllocator, AbstractRegAllocator>
+          regAllocatorConstructor,
+      boolean emitSiblingCalls,
+      Profile profile,
+      boolean instrument) {
     AssemblerFile preAsmFile = new AssemblerFile();
     AssemblerFile file = new AssemblerFile();
-    for (Graph graph : Program.getGraphs()) {
-      AssemblerGenerator asmGenerator = new AssemblerGenerator(graph);
+    for (Graph graph : graphs) {
+      AssemblerGenerator asmGenerator =
+          new AssemblerGenerator(graph, emitSiblingCalls, profile, instrument);
       CodeSegment segment = asmGenerator.generateSegmentForGraph();
+      if (instrument) {
+        file.add(new ProfileSegment(asmGenerator.getProfileCounters()));
+      }
       preAsmFile.add(segment);
       LinearCodeSegment linCode = LinearCodeSegment.fromCodeSegment(segment);
       try {
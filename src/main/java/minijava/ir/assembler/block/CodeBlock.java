@@ -139,6 +139,16 @@ public class CodeBlock implements GNUAssemblerConvertible, Iterable<Instruction>
     return normalInstructions.add(instruction);
   }
 
+  /**
+   * Adds a compare to the normal instructions, for instructions like {@link
+   * minijava.ir.assembler.instructions.CMov} that use its flags right away.
+   *
+   * <p>The register allocators only insert movs, which keep the flags intact.
+   */
+  public boolean addInlineCompare(Cmp cmp) {
+    return normalInstructions.add(cmp);
+  }
+
   /**
    * The instruction will be output between the normal instructions and the cmp instruction (if
    * there's any)
@@ -1,7 +1,15 @@
 package minijava.ir.assembler.block;
 
+import static org.jooq.lambda.Seq.seq;
+
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 
 public class CodeSegment extends Segment {
@@ -37,6 +45,38 @@ public class CodeSegment extends Segment {
     blocks.add(block);
   }
 
+  /**
+   * Lays out the blocks in chains along their most frequent successors, starting with {@code
+   * entry}. When all successors of a block are placed already, the next chain starts with the most
+   * frequent block left, so that rarely executed blocks end up at the end of the segment.
+   *
+   * <p>{@code frequency} is how often a block was entered. As there are no critical edges, the
+   * successors of a conditional jump are only entered through that jump, so their frequencies
+   * should be the counts of the respective edges.
+   *
+   * <p>Every block ends with explicit jumps, so any order is valid.
+   */
+  public void reorderBlocks(CodeBlock entry, ToLongFunction<CodeBlock> frequency) {
+    Comparator<CodeBlock> byFrequency = Comparator.comparingLong(frequency);
+    List<CodeBlock> byDecreasingFrequency = seq(blocks).sorted(byFrequency.reversed()).toList();
+    List<CodeBlock> order = new ArrayList<>();
+    Set<CodeBlock> placed = new HashSet<>();
+    Optional<CodeBlock> next = Optional.of(entry);
+    while (next.isPresent()) {
+      CodeBlock block = next.get();
+      order.add(block);
+      placed.add(block);
+      next =
+          seq(block.getJumpedToBlocks())
+              .filter(b -> !placed.contains(b))
+              .maxBy(frequency::applyAsLong);
+      if (!next.isPresent()) {
+        next = seq(byDecreasingFrequency).filter(b -> !placed.contains(b)).findFirst();
+      }
+    }
+    blocks = order;
+  }
+
   public void addComment(String comment) {
     comments.add(comment);
   }
@@ -0,0 +1,46 @@
+package minijava.ir.assembler.block;
+
+import java.util.Map;
+import minijava.ir.utils.Profile;
+
+/**
+ * The profile counters of the code blocks of a method.
+ *
+ * <p>Every counter is a record of the 64 bit count and a pointer to its {@link Profile} key, placed
+ * in the {@code mj_profile} section. The linker collects the records of all methods into a single
+ * array between {@code __start_mj_profile} and {@code __stop_mj_profile}, which the runtime dumps
+ * at exit. This only works with ELF targets.
+ */
+public class ProfileSegment extends Segment {
+
+  /** The symbols of the counters, mapped to their keys. */
+  private final Map<String, String> counters;
+
+  public ProfileSegment(Map<String, String> counters) {
+    this.counters = counters;
+  }
+
+  @Override
+  public String toGNUAssembler() {
+    String nl = System.lineSeparator();
+    StringBuilder builder = new StringBuilder();
+    builder.append("\t.section mj_profile,\"aw\",@progbits").append(nl);
+    builder.append("\t.p2align 3").append(nl);
+    for (String symbol : counters.keySet()) {
+      builder.append(symbol).append(":").append(nl);
+      builder.append("\t.quad 0").append(nl);
+      builder.append("\t.quad ").append(nameSymbol(symbol)).append(nl);
+    }
+    builder.append("\t.section .rodata").append(nl);
+    for (Map.Entry<String, String> counter : counters.entrySet()) {
+      builder.append(nameSymbol(counter.getKey())).append(":").append(nl);
+      builder.append("\t.string \"").append(counter.getValue()).append("\"").append(nl);
+    }
+    builder.append("\t.text");
+    return builder.toString();
+  }
+
+  private static String nameSymbol(String counterSymbol) {
+    return counterSymbol + "_name";
+  }
+}
@@ -0,0 +1,55 @@
+package minijava.ir.assembler.instructions;
+
+import static minijava.ir.utils.FirmUtils.relationToInstructionSuffix;
+
+import com.google.common.collect.ImmutableList;
+import firm.Relation;
+import java.util.List;
+import minijava.ir.assembler.location.Location;
+
+/**
+ * Conditional move, which only moves the source into the destination if the relation holds for the
+ * preceding {@link Cmp}.
+ *
+ * <p>The source can't be a constant and the destination has to be a register, which both register
+ * allocators take care of. There's no 8 bit version.
+ */
+public class CMov extends Instruction {
+
+  public final Relation relation;
+  public final Argument source;
+  public final Location destination;
+
+  public CMov(Relation relation, Argument source, Location destination) {
+    super(getWidthOfArguments(CMov.class, source, destination));
+    this.relation = relation;
+    this.source = source;
+    this.destination = destination;
+  }
+
+  @Override
+  protected String toGNUAssemblerWoComments() {
+    // The width is implied by the registers, a suffix would be confused with the condition.
+    return String.format(
+        "%s%s %s, %s",
+        getType().asm,
+        relationToInstructionSuffix(relation),
+        source.toGNUAssembler(),
+        destination.toGNUAssembler());
+  }
+
+  @Override
+  public Type getType() {
+    return Type.CMOV;
+  }
+
+  @Override
+  public List<Argument> getArguments() {
+    return ImmutableList.of(source, destination);
+  }
+
+  @Override
+  public <T> T accept(InstructionVisitor<T> visitor) {
+    return visitor.visit(this);
+  }
+}
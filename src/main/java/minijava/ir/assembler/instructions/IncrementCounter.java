@@ -0,0 +1,39 @@
+package minijava.ir.assembler.instructions;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import minijava.ir.assembler.location.Register;
+
+/**
+ * Increments the 64 bit profile counter {@code symbol} in the data segment. It neither uses nor
+ * clobbers any register, only the flags.
+ */
+public class IncrementCounter extends Instruction {
+
+  public final String symbol;
+
+  public IncrementCounter(String symbol) {
+    super(Register.Width.Quad);
+    this.symbol = symbol;
+  }
+
+  @Override
+  protected String toGNUAssemblerWoComments() {
+    return super.toGNUAssemblerWoComments() + " " + symbol + "(%rip)";
+  }
+
+  @Override
+  public Type getType() {
+    return Type.INCREMENT_COUNTER;
+  }
+
+  @Override
+  public List<Argument> getArguments() {
+    return ImmutableList.of();
+  }
+
+  @Override
+  public <T> T accept(InstructionVisitor<T> visitor) {
+    return visitor.visit(this);
+  }
+}
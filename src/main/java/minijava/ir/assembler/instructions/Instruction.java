@@ -22,12 +22,18 @@ public abstract class Instruction implements GNUAssemblerConvertible, Comparable
     SUB("sub", true),
     MUL("imul", true),
     DIV("idivl", false),
+    WIDE_MUL("imull", false),
+    SAR("sar", true),
+    SHR("shr", true),
     NEG("neg", true),
     CLTD("cltd"),
     CMP(Category.CMP, "cmp", true),
     COND_JMP(Category.JMP, "j"),
     JMP(Category.JMP, "jmp"),
+    TAIL_JMP(Category.JMP, "jmp"),
+    INCREMENT_COUNTER("incq"),
     SET(Category.AFTER_CMP, "set"),
+    CMOV("cmov"),
     PUSH("pushq"),
     POP("pop", true),
     RET("ret"),
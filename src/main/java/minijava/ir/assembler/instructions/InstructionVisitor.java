@@ -14,6 +14,8 @@ public interface InstructionVisitor<T> {
 
   T visit(CLTD cltd);
 
+  T visit(CMov cmov);
+
   T visit(Cmp cmp);
 
   T visit(ConditionalJmp jmp);
@@ -26,6 +28,10 @@ public interface InstructionVisitor<T> {
 
   T visit(Jmp jmp);
 
+  T visit(TailJmp jmp);
+
+  T visit(IncrementCounter incrementCounter);
+
   T visit(MetaCall metaCall);
 
   T visit(Mov mov);
@@ -36,6 +42,12 @@ public interface InstructionVisitor<T> {
 
   T visit(Neg neg);
 
+  T visit(Sar sar);
+
+  T visit(Shr shr);
+
+  T visit(WideMul mul);
+
   T visit(Pop pop);
 
   T visit(Push push);
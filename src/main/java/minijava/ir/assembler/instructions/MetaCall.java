@@ -30,12 +30,26 @@ public class MetaCall extends Instruction {
   public final List<Argument> args;
   public final Optional<Location> result;
   public final MethodInformation methodInfo;
+  /**
+   * Whether this call is directly followed by the return of the calling method, in which case we
+   * jump to the callee instead. All arguments have to be passed in registers.
+   */
+  public final boolean isTailCall;
 
   public MetaCall(List<Argument> args, Optional<Location> result, MethodInformation methodInfo) {
+    this(args, result, methodInfo, false);
+  }
+
+  public MetaCall(
+      List<Argument> args,
+      Optional<Location> result,
+      MethodInformation methodInfo,
+      boolean isTailCall) {
     super(result.isPresent() ? result.get().width : Register.Width.Quad);
     this.args = Collections.unmodifiableList(args);
     this.result = result;
     this.methodInfo = methodInfo;
+    this.isTailCall = isTailCall;
   }
 
   @Override
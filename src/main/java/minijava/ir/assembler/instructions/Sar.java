@@ -0,0 +1,19 @@
+package minijava.ir.assembler.instructions;
+
+/** Arithmetic right shift, which keeps the sign */
+public class Sar extends ShiftInstruction {
+
+  public Sar(int amount, Argument arg) {
+    super(amount, arg);
+  }
+
+  @Override
+  public Type getType() {
+    return Type.SAR;
+  }
+
+  @Override
+  public <T> T accept(InstructionVisitor<T> visitor) {
+    return visitor.visit(this);
+  }
+}
@@ -0,0 +1,16 @@
+package minijava.ir.assembler.instructions;
+
+/** Shifts the passed argument by a constant amount and stores it back */
+public abstract class ShiftInstruction extends UnaryInstruction {
+  public final int amount;
+
+  public ShiftInstruction(int amount, Argument arg) {
+    super(arg);
+    this.amount = amount;
+  }
+
+  @Override
+  protected String toGNUAssemblerWoComments() {
+    return createGNUAssemblerWoComments(new ConstArgument(width, amount), arg);
+  }
+}
@@ -0,0 +1,19 @@
+package minijava.ir.assembler.instructions;
+
+/** Logical right shift, which fills in zeros */
+public class Shr extends ShiftInstruction {
+
+  public Shr(int amount, Argument arg) {
+    super(amount, arg);
+  }
+
+  @Override
+  public Type getType() {
+    return Type.SHR;
+  }
+
+  @Override
+  public <T> T accept(InstructionVisitor<T> visitor) {
+    return visitor.visit(this);
+  }
+}
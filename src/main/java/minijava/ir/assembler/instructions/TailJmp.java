@@ -0,0 +1,39 @@
+package minijava.ir.assembler.instructions;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import minijava.ir.assembler.location.Register;
+
+/**
+ * A jump to another method in place of a call. The callee returns directly to our caller, so this
+ * has to come after the epilogue.
+ */
+public class TailJmp extends Instruction {
+
+  public final String targetLdName;
+
+  public TailJmp(String targetLdName) {
+    super(Register.Width.Quad);
+    this.targetLdName = targetLdName;
+  }
+
+  @Override
+  protected String toGNUAssemblerWoComments() {
+    return super.toGNUAssemblerWoComments() + " " + targetLdName;
+  }
+
+  @Override
+  public Type getType() {
+    return Type.TAIL_JMP;
+  }
+
+  @Override
+  public List<Argument> getArguments() {
+    return ImmutableList.of();
+  }
+
+  @Override
+  public <T> T accept(InstructionVisitor<T> visitor) {
+    return visitor.visit(this);
+  }
+}
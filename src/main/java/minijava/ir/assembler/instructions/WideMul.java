@@ -0,0 +1,41 @@
+package minijava.ir.assembler.instructions;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import minijava.ir.assembler.location.Register;
+
+/**
+ * One operand <code>imull</code> instruction.
+ *
+ * <p>Multiplies the EAX register with the factor. The upper 32 bit of the 64 bit product are placed
+ * into the EDX register and the lower 32 bit into the EAX register.
+ */
+public class WideMul extends Instruction {
+
+  public final Argument factor;
+
+  public WideMul(Argument factor) {
+    super(Register.Width.Long);
+    this.factor = factor;
+  }
+
+  @Override
+  protected String toGNUAssemblerWoComments() {
+    return createGNUAssemblerWoComments(factor);
+  }
+
+  @Override
+  public Type getType() {
+    return Type.WIDE_MUL;
+  }
+
+  @Override
+  public List<Argument> getArguments() {
+    return ImmutableList.of();
+  }
+
+  @Override
+  public <T> T accept(InstructionVisitor<T> visitor) {
+    return visitor.visit(this);
+  }
+}
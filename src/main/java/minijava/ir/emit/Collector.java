@@ -1,12 +1,16 @@
 package minijava.ir.emit;
 
+import static org.jooq.lambda.Seq.seq;
+
 import firm.ClassType;
 import firm.Entity;
 import firm.MethodType;
 import firm.SegmentType;
 import firm.Type;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.IdentityHashMap;
+import java.util.List;
 import minijava.ast.Class;
 import minijava.ast.Field;
 import minijava.ast.LocalVariable;
@@ -31,6 +35,15 @@ class Collector implements Program.Visitor<Void> {
 
   @Override
   public Void visitProgram(Program that) {
+    FieldAccessCounter accesses = new FieldAccessCounter();
+    for (Class decl : that.declarations) {
+      for (Method m : decl.methods) {
+        if (!m.isNative) {
+          m.body.acceptVisitor(accesses);
+        }
+      }
+    }
+
     for (Class decl : that.declarations) {
       // We need a first pass through the decls to have all class types available.
       ClassType classType = new ClassType(decl.name());
@@ -39,7 +52,16 @@ class Collector implements Program.Visitor<Void> {
 
     for (Class decl : that.declarations) {
       ClassType classType = classTypes.get(decl);
-      for (Field f : decl.fields) {
+      // libfirm lays out fields in the order they were created. Sorting by size avoids padding, so
+      // that booleans are packed at the end. Among fields of the same size, hot fields come first,
+      // so that they are more likely to share a cache line. Ties keep their declaration order.
+      List<Field> layout =
+          seq(decl.fields)
+              .sorted(
+                  Comparator.comparingInt((Field f) -> -storageSize(f))
+                      .thenComparingLong(f -> -accesses.count(f)))
+              .toList();
+      for (Field f : layout) {
         fields.put(f, createEntity(f));
       }
       if (decl.fields.size() == 0) {
@@ -57,6 +79,10 @@ class Collector implements Program.Visitor<Void> {
     return null;
   }
 
+  private int storageSize(Field f) {
+    return Types.storageType(f.type, classTypes).getMode().getSizeBytes();
+  }
+
   private Entity createEntity(Field f) {
     Type type = Types.storageType(f.type, classTypes);
     ClassType definingClass = classTypes.get(f.definingClass.def);
@@ -0,0 +1,145 @@
+package minijava.ir.emit;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import minijava.ast.Block;
+import minijava.ast.BlockStatement;
+import minijava.ast.Expression;
+import minijava.ast.Field;
+import minijava.ast.Statement;
+
+/**
+ * Estimates how often each field is accessed, by counting the field accesses in method bodies.
+ * Accesses in loops count {@link #LOOP_WEIGHT} times as much for every enclosing loop.
+ */
+class FieldAccessCounter
+    implements Block.Visitor<Void>, Expression.Visitor<Void>, BlockStatement.Visitor<Void> {
+  private static final long LOOP_WEIGHT = 10;
+  /** Deeper nesting doesn't make a difference anymore, but would overflow eventually. */
+  private static final int MAX_LOOP_DEPTH = 6;
+
+  private final Map<Field, Long> counts = new IdentityHashMap<>();
+  private long weight = 1;
+  private int loopDepth = 0;
+
+  /** The estimated access frequency of {@code field}, relative to the other fields. */
+  long count(Field field) {
+    return counts.getOrDefault(field, 0L);
+  }
+
+  @Override
+  public Void visitBlock(Block that) {
+    that.statements.forEach(s -> s.acceptVisitor(this));
+    return null;
+  }
+
+  @Override
+  public Void visitEmpty(Statement.Empty that) {
+    return null;
+  }
+
+  @Override
+  public Void visitIf(Statement.If that) {
+    that.condition.acceptVisitor(this);
+    that.then.acceptVisitor(this);
+    that.else_.ifPresent(e -> e.acceptVisitor(this));
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStatement(Statement.ExpressionStatement that) {
+    that.expression.acceptVisitor(this);
+    return null;
+  }
+
+  @Override
+  public Void visitWhile(Statement.While that) {
+    long outerWeight = weight;
+    if (loopDepth < MAX_LOOP_DEPTH) {
+      weight *= LOOP_WEIGHT;
+    }
+    loopDepth++;
+    that.condition.acceptVisitor(this);
+    that.body.acceptVisitor(this);
+    loopDepth--;
+    weight = outerWeight;
+    return null;
+  }
+
+  @Override
+  public Void visitReturn(Statement.Return that) {
+    that.expression.ifPresent(e -> e.acceptVisitor(this));
+    return null;
+  }
+
+  @Override
+  public Void visitVariable(BlockStatement.Variable that) {
+    that.rhs.ifPresent(e -> e.acceptVisitor(this));
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryOperator(Expression.BinaryOperator that) {
+    that.left.acceptVisitor(this);
+    that.right.acceptVisitor(this);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryOperator(Expression.UnaryOperator that) {
+    that.expression.acceptVisitor(this);
+    return null;
+  }
+
+  @Override
+  public Void visitMethodCall(Expression.MethodCall that) {
+    that.self.acceptVisitor(this);
+    that.arguments.forEach(a -> a.acceptVisitor(this));
+    return null;
+  }
+
+  @Override
+  public Void visitFieldAccess(Expression.FieldAccess that) {
+    that.self.acceptVisitor(this);
+    counts.merge(that.field.def, weight, Long::sum);
+    return null;
+  }
+
+  @Override
+  public Void visitArrayAccess(Expression.ArrayAccess that) {
+    that.array.acceptVisitor(this);
+    that.index.acceptVisitor(this);
+    return null;
+  }
+
+  @Override
+  public Void visitNewObject(Expression.NewObject that) {
+    return null;
+  }
+
+  @Override
+  public Void visitNewArray(Expression.NewArray that) {
+    that.size.acceptVisitor(this);
+    return null;
+  }
+
+  @Override
+  public Void visitVariable(Expression.Variable that) {
+    return null;
+  }
+
+  @Override
+  public Void visitBooleanLiteral(Expression.BooleanLiteral that) {
+    return null;
+  }
+
+  @Override
+  public Void visitIntegerLiteral(Expression.IntegerLiteral that) {
+    return null;
+  }
+
+  @Override
+  public Void visitReferenceTypeLiteral(Expression.ReferenceTypeLiteral that) {
+    return null;
+  }
+}
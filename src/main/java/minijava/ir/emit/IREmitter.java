@@ -40,6 +40,7 @@ import minijava.ast.Statement;
 import minijava.ir.InitFirm;
 import minijava.ir.utils.GraphUtils;
 import minijava.ir.utils.NodeUtils;
+import minijava.ir.utils.ProfileKeys;
 import minijava.util.SourceRange;
 import org.jetbrains.annotations.NotNull;
 import org.jooq.lambda.function.Function4;
@@ -181,6 +182,7 @@ public class IREmitter
 
     construction.setCurrentBlock(graph.getEndBlock());
     construction.finish();
+    ProfileKeys.assign(graph);
   }
 
   @Override
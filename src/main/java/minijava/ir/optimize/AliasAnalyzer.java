@@ -1,5 +1,10 @@
 package minijava.ir.optimize;
 
+import static firm.bindings.binding_irnode.ir_opcode.iro_Call;
+import static firm.bindings.binding_irnode.ir_opcode.iro_Load;
+import static firm.bindings.binding_irnode.ir_opcode.iro_Phi;
+import static firm.bindings.binding_irnode.ir_opcode.iro_Store;
+import static firm.bindings.binding_irnode.ir_opcode.iro_Sync;
 import static org.jooq.lambda.Seq.seq;
 
 import com.google.common.collect.Lists;
@@ -21,10 +26,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.BiPredicate;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import minijava.ir.emit.Types;
 import minijava.ir.utils.FirmUtils;
+import minijava.ir.utils.GraphSnapshot;
 import minijava.ir.utils.GraphUtils;
 import minijava.ir.utils.NodeUtils;
 import minijava.ir.utils.SideEffects;
@@ -60,6 +67,9 @@ import org.slf4j.LoggerFactory;
  *       alias.
  *   <li>Offsets: When we access a[0] this should obviously be independent of a[1].
  * </ul>
+ *
+ * <p>The fixed point iteration doesn't scale to big graphs, e.g. after inlining. For those we fall
+ * back to the flow-insensitive {@link AliasClasses}.
  */
 public class AliasAnalyzer extends BaseOptimizer {
 
@@ -80,29 +90,54 @@ public class AliasAnalyzer extends BaseOptimizer {
     this.graph = graph;
     memories.clear();
     pointsTos.clear();
-    ArrayList<Node> worklist = GraphUtils.topologicalOrder(graph);
-    long complexity = seq(worklist).filter(AliasAnalyzer::isRelevantNode).count();
-    if (complexity > MAX_RELEVANT_NODES) {
+    if (countRelevantNodes(GraphSnapshot.of(graph)) > MAX_RELEVANT_NODES) {
       // The analysis is too slow for big graphs...
-      return false;
+      return optimizeWithAliasClasses();
     }
+    ArrayList<Node> worklist = GraphUtils.topologicalOrder(graph);
     try {
       fixedPointIteration(worklist);
     } catch (TooComplexError e) {
       // Well, that's unfortunate.
-      return false;
+      memories.clear();
+      pointsTos.clear();
+      return optimizeWithAliasClasses();
     }
-    LoadStoreAliasingTransformation transformation = new LoadStoreAliasingTransformation();
-    Boolean aBoolean = FirmUtils.withBackEdges(graph, transformation::transform);
-    return aBoolean;
+    LoadStoreAliasingTransformation transformation =
+        new LoadStoreAliasingTransformation(
+            (access, sideEffect) ->
+                mayAlias(getPointsTo(access.getPred(1)), aliasClass(sideEffect)));
+    boolean hasChanged = FirmUtils.withBackEdges(graph, transformation::transform);
+    DeadStoreElimination deadStoreElimination = new DeadStoreElimination();
+    hasChanged |= FirmUtils.withBackEdges(graph, deadStoreElimination::transform);
+    return hasChanged;
+  }
+
+  /**
+   * Reorders memory dependencies based on the much coarser, but cheap {@link AliasClasses}. We
+   * can't tell which Stores are dead without flow information, so this only cuts dependencies.
+   */
+  private boolean optimizeWithAliasClasses() {
+    AliasClasses aliasClasses = AliasClasses.of(graph);
+    LoadStoreAliasingTransformation transformation =
+        new LoadStoreAliasingTransformation(aliasClasses::mayAlias);
+    return FirmUtils.withBackEdges(graph, transformation::transform);
   }
 
-  private static boolean isRelevantNode(Node node) {
-    return node instanceof Store
-        || node instanceof Load
-        || node instanceof Call
-        || node instanceof Phi
-        || node instanceof Sync;
+  /** Counts the nodes which participate in the analysis, without creating any node wrappers. */
+  private static int countRelevantNodes(GraphSnapshot snapshot) {
+    int count = 0;
+    for (int i = 0; i < snapshot.size(); ++i) {
+      int node = snapshot.reachableNode(i);
+      if (snapshot.hasOpCode(node, iro_Store)
+          || snapshot.hasOpCode(node, iro_Load)
+          || snapshot.hasOpCode(node, iro_Call)
+          || snapshot.hasOpCode(node, iro_Phi)
+          || snapshot.hasOpCode(node, iro_Sync)) {
+        count++;
+      }
+    }
+    return count;
   }
 
   private Set<IndirectAccess> getPointsTo(Node node) {
@@ -318,6 +353,11 @@ public class AliasAnalyzer extends BaseOptimizer {
     return ((Address) call.getPtr()).getEntity();
   }
 
+  /** Whether {@code call} allocates a fresh chunk of memory, which nothing may alias. */
+  static boolean isCalloc(Call call) {
+    return isCalloc(calledMethod(call));
+  }
+
   private static boolean isCalloc(Entity method) {
     return method.equals(Types.CALLOC);
   }
@@ -799,8 +839,39 @@ public class AliasAnalyzer extends BaseOptimizer {
     }
   }
 
+  private Set<IndirectAccess> aliasClass(Node node) {
+    if (node instanceof Load || node instanceof Store) {
+      Node ptr = node.getPred(1);
+      return getPointsTo(ptr);
+    } else if (node instanceof Call) {
+      return getPointsTo(node);
+    } else if (node instanceof Start) {
+      // Clearly, we can't move stuff before the Start node. But there is no way
+      // to state this just by its alias class.
+      throw new UnsupportedOperationException("The alias class of Start can't be computed.");
+    } else if (node instanceof Phi) {
+      // Similarly, dominance is a bitch. Don't even try to move beyond Phis.
+      // If we really need that last bit of precision: MEMO: we'd have to make a new
+      // phi and start tracing again from the preds. Not worth it though if no transformation
+      // makes use of that infomration.
+      LOGGER.warn("The alias class of a Phi shouldn't be computed, as we never move beyond.");
+      return getPointsTo(node);
+    } else {
+      // I wonder what other side-effects we might hit...
+      // Div/Mod are never reachable.
+      throw new UnsupportedOperationException("Can't handle side effect " + node);
+    }
+  }
+
   private class LoadStoreAliasingTransformation {
 
+    /** Whether a Load or Store may alias with a preceding side effect. */
+    private final BiPredicate<Node, Node> mayAlias;
+
+    private LoadStoreAliasingTransformation(BiPredicate<Node, Node> mayAlias) {
+      this.mayAlias = mayAlias;
+    }
+
     public boolean transform() {
       // This works by following memory edges and reordering them when there is no alias.
       boolean hasChanged = false;
@@ -843,8 +914,6 @@ public class AliasAnalyzer extends BaseOptimizer {
     private Set<Node> lastAliasingSideEffects(Node sideEffect) {
       // We assume that the Mem pred is at index 0 and that the ptr pred is at index 1
       // That's at least the case for Load and Store.
-      Node ptr = sideEffect.getPred(1);
-      Set<IndirectAccess> aliasClass = getPointsTo(ptr);
       boolean isLoad = sideEffect instanceof Load;
       // This can really happen, e.g. if an array element or field is accessed before initialized
       // with a value. We may potentially replace the Load with a null/0 or do anything on a Store
@@ -859,36 +928,12 @@ public class AliasAnalyzer extends BaseOptimizer {
               return false;
             } else {
               // In every other case we make use of our alias info.
-              return mayAlias(aliasClass, aliasClass(se));
+              return mayAlias.test(sideEffect, se);
             }
           };
       return SideEffects.lastAffectingSideEffects(affectsSideEffect, sideEffect);
     }
 
-    private Set<IndirectAccess> aliasClass(Node node) {
-      if (node instanceof Load || node instanceof Store) {
-        Node ptr = node.getPred(1);
-        return getPointsTo(ptr);
-      } else if (node instanceof Call) {
-        return getPointsTo(node);
-      } else if (node instanceof Start) {
-        // Clearly, we can't move stuff before the Start node. But there is no way
-        // to state this just by its alias class.
-        throw new UnsupportedOperationException("The alias class of Start can't be computed.");
-      } else if (node instanceof Phi) {
-        // Similarly, dominance is a bitch. Don't even try to move beyond Phis.
-        // If we really need that last bit of precision: MEMO: we'd have to make a new
-        // phi and start tracing again from the preds. Not worth it though if no transformation
-        // makes use of that infomration.
-        LOGGER.warn("The alias class of a Phi shouldn't be computed, as we never move beyond.");
-        return getPointsTo(node);
-      } else {
-        // I wonder what other side-effects we might hit...
-        // Div/Mod are never reachable.
-        throw new UnsupportedOperationException("Can't handle side effect " + node);
-      }
-    }
-
     private void redirectMem(Node sideEffect, Node newMem) {
       Node oldMem = sideEffect.getPred(0);
       // This is the easy part.
@@ -962,34 +1007,160 @@ public class AliasAnalyzer extends BaseOptimizer {
       Graph.exchange(successorSync, newSync);
     }
 
-    private boolean mayAlias(Set<IndirectAccess> aliasClassA, Set<IndirectAccess> aliasClassB) {
-      for (IndirectAccess ref : aliasClassA) {
-        if (ref.offset == UNKNOWN_OFFSET) {
-          // This is bad asymptotic wise, since we don't have an index for base and type.
-          boolean mayPotentiallyAlias =
-              !seq(aliasClassB)
-                  .filter(
-                      ia -> ia.base.equals(ref.base) && ia.pointedToType.equals(ref.pointedToType))
-                  .isEmpty();
-          if (mayPotentiallyAlias) {
-            return true;
+    private boolean isLoadOrStore(Node node) {
+      return node instanceof Load || node instanceof Store;
+    }
+  }
+
+  private static boolean mayAlias(
+      Set<IndirectAccess> aliasClassA, Set<IndirectAccess> aliasClassB) {
+    for (IndirectAccess ref : aliasClassA) {
+      if (ref.offset == UNKNOWN_OFFSET) {
+        // This is bad asymptotic wise, since we don't have an index for base and type.
+        boolean mayPotentiallyAlias =
+            !seq(aliasClassB)
+                .filter(
+                    ia -> ia.base.equals(ref.base) && ia.pointedToType.equals(ref.pointedToType))
+                .isEmpty();
+        if (mayPotentiallyAlias) {
+          return true;
+        }
+      } else {
+        // This is much better.
+        IndirectAccess refAtAnyOffset =
+            new IndirectAccess(ref.base, ref.pointedToType, UNKNOWN_OFFSET);
+        boolean mayPotentiallyAlias =
+            aliasClassB.contains(ref) || aliasClassB.contains(refAtAnyOffset);
+        if (mayPotentiallyAlias) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Removes Stores whose value can never be observed: On every path through the memory chain, the
+   * stored location is either overwritten by a Store to the same address before it may be read, or
+   * the method returns and the location isn't visible to the caller, e.g. because it belongs to an
+   * object which was allocated here and didn't escape.
+   *
+   * <p>This runs after {@link LoadStoreAliasingTransformation}, so that Loads and Stores hang
+   * directly off the last side effects they alias with.
+   */
+  private class DeadStoreElimination {
+    /** We give up on stores with more memory successors than this. */
+    private static final int MAX_VISITED_SUCCESSORS = 100;
+
+    public boolean transform() {
+      boolean hasChanged = false;
+      for (Node node : GraphUtils.topologicalOrder(graph)) {
+        if (!(node instanceof Store)) {
+          continue;
+        }
+        Store store = (Store) node;
+        if (!isDead(store)) {
+          continue;
+        }
+        for (Edge be : Lists.newArrayList(BackEdges.getOuts(store))) {
+          if (be.node.getMode().equals(Mode.getM())) {
+            Graph.exchange(be.node, store.getMem());
+          }
+        }
+        hasChanged = true;
+      }
+      return hasChanged;
+    }
+
+    private boolean isDead(Store store) {
+      Set<IndirectAccess> aliasClass = getPointsTo(store.getPtr());
+      if (aliasClass.isEmpty()) {
+        // We don't know where this points to, see lastAliasingSideEffects.
+        return false;
+      }
+
+      Set<Node> visited = new HashSet<>();
+      List<Node> toVisit = memorySuccessors(store);
+      if (toVisit.isEmpty()) {
+        return false;
+      }
+      while (!toVisit.isEmpty()) {
+        Node successor = toVisit.remove(toVisit.size() - 1);
+        if (!visited.add(successor)) {
+          continue;
+        }
+        if (visited.size() > MAX_VISITED_SUCCESSORS) {
+          return false;
+        }
+
+        if (successor instanceof Sync) {
+          toVisit.addAll(users(successor));
+        } else if (successor instanceof Store) {
+          if (((Store) successor).getPtr().equals(store.getPtr())) {
+            // The location is overwritten on this path.
+            continue;
           }
-        } else {
-          // This is much better.
-          IndirectAccess refAtAnyOffset =
-              new IndirectAccess(ref.base, ref.pointedToType, UNKNOWN_OFFSET);
-          boolean mayPotentiallyAlias =
-              aliasClassB.contains(ref) || aliasClassB.contains(refAtAnyOffset);
-          if (mayPotentiallyAlias) {
-            return true;
+          toVisit.addAll(memorySuccessors(successor));
+        } else if (successor instanceof Load) {
+          Set<IndirectAccess> loaded = getPointsTo(((Load) successor).getPtr());
+          if (loaded.isEmpty() || mayAlias(aliasClass, loaded)) {
+            return false;
+          }
+          toVisit.addAll(memorySuccessors(successor));
+        } else if (successor instanceof Call) {
+          if (mayAlias(aliasClass, getPointsTo(successor))) {
+            return false;
+          }
+          toVisit.addAll(memorySuccessors(successor));
+        } else if (successor instanceof Return) {
+          if (isVisibleToCaller(aliasClass, (Return) successor)) {
+            return false;
           }
+        } else {
+          // Phis (we can't tell if the address is the same in the next iteration), End, ...
+          return false;
         }
       }
-      return false;
+      return true;
     }
 
-    private boolean isLoadOrStore(Node node) {
-      return node instanceof Load || node instanceof Store;
+    /** All nodes using the memory after {@code sideEffect}. */
+    private List<Node> memorySuccessors(Node sideEffect) {
+      return seq(BackEdges.getOuts(sideEffect))
+          .map(be -> be.node)
+          .filter(n -> n.getMode().equals(Mode.getM()))
+          .flatMap(proj -> seq(users(proj)))
+          .toList();
+    }
+
+    private List<Node> users(Node node) {
+      return seq(BackEdges.getOuts(node)).map(be -> be.node).toList();
+    }
+
+    /**
+     * The caller can see all chunks reachable from the arguments, from anything returned by callees
+     * and from the returned value.
+     */
+    private boolean isVisibleToCaller(Set<IndirectAccess> aliasClass, Return ret) {
+      Memory memory = getMemory(ret);
+      Set<Node> visible = new HashSet<>();
+      List<Node> toVisit = new ArrayList<>();
+      toVisit.add(graph.getStart());
+      for (Node pred : ret.getPreds()) {
+        seq(getPointsTo(pred)).map(ia -> ia.base).forEach(toVisit::add);
+      }
+      for (IndirectAccess access : aliasClass) {
+        if (access.base instanceof Call && !isCalloc((Call) access.base)) {
+          toVisit.add(access.base);
+        }
+      }
+      while (!toVisit.isEmpty()) {
+        Node base = toVisit.remove(toVisit.size() - 1);
+        if (visible.add(base)) {
+          toVisit.addAll(memory.getChunk(base).getSlot(UNKNOWN_OFFSET));
+        }
+      }
+      return seq(aliasClass).anyMatch(ia -> visible.contains(ia.base));
     }
   }
 
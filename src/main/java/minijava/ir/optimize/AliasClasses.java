@@ -0,0 +1,209 @@
+package minijava.ir.optimize;
+
+import static org.jooq.lambda.Seq.seq;
+
+import firm.ArrayType;
+import firm.Entity;
+import firm.Graph;
+import firm.Mode;
+import firm.Type;
+import firm.nodes.Call;
+import firm.nodes.Cmp;
+import firm.nodes.Const;
+import firm.nodes.Load;
+import firm.nodes.Member;
+import firm.nodes.Mux;
+import firm.nodes.Node;
+import firm.nodes.Phi;
+import firm.nodes.Proj;
+import firm.nodes.Sel;
+import firm.nodes.Store;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import minijava.ir.utils.GraphUtils;
+import minijava.ir.utils.NodeUtils;
+
+/**
+ * A flow-insensitive alias analysis, which is cheap enough for graphs where the {@link
+ * AliasAnalyzer} gives up.
+ *
+ * <p>Every allocation site is the base of its own alias class of references. References merged by
+ * Phis or Muxes are unified in union-find style. As soon as a reference escapes, by being stored,
+ * passed to or returned from a method, its class is unified with that of all references we don't
+ * know anything about: Arguments, loaded references and results of calls.
+ *
+ * <p>Every Load and Store then accesses a location described by the alias class of the base
+ * reference and the accessed field or array element, just like {@link AliasAnalyzer} does with its
+ * offsets. Different fields never alias, neither do elements of arrays with different element types
+ * or at different constant indices. Calls only touch locations in the class of unknown references.
+ *
+ * <p>All of this runs in a single pass over the graph and near-linear time.
+ */
+class AliasClasses {
+  private static final int UNKNOWN_INDEX = -1;
+
+  /** The representant of all references we don't know anything about. */
+  private final Object unknown = new Object();
+
+  private final Map<Object, Object> parents = new HashMap<>();
+
+  private AliasClasses() {}
+
+  static AliasClasses of(Graph graph) {
+    AliasClasses classes = new AliasClasses();
+    for (Node node : GraphUtils.topologicalOrder(graph)) {
+      classes.visit(node);
+    }
+    return classes;
+  }
+
+  private void visit(Node node) {
+    if (node instanceof Phi || node instanceof Mux) {
+      // References flowing together may point to the same object.
+      for (Node pred : node.getPreds()) {
+        if (isReference(pred)) {
+          union(classOf(node), classOf(pred));
+        }
+      }
+      return;
+    }
+    for (int i = 0; i < node.getPredCount(); ++i) {
+      Node pred = node.getPred(i);
+      if (isReference(pred) && escapesThrough(node, i)) {
+        union(classOf(pred), unknown);
+      }
+    }
+  }
+
+  /** Whether the reference at {@code node}'s pred {@code i} might be seen by anything we don't. */
+  private static boolean escapesThrough(Node node, int i) {
+    if (node instanceof Member || node instanceof Sel || node instanceof Load) {
+      // The base of an access or the address of a Load.
+      return false;
+    }
+    if (node instanceof Store) {
+      // Storing to an address is fine, storing the reference itself isn't.
+      return i == 2;
+    }
+    return !(node instanceof Cmp);
+  }
+
+  private static boolean isReference(Node node) {
+    return node.getMode().equals(Mode.getP());
+  }
+
+  /**
+   * Allocation sites, Phis, Muxes and constants start out as their own class. Everything else, e.g.
+   * arguments and loaded references, might point to anything unknown.
+   */
+  private Object classOf(Node reference) {
+    boolean ownClass =
+        reference instanceof Phi
+            || reference instanceof Mux
+            || reference instanceof Const
+            || isAllocation(reference);
+    return find(ownClass ? reference : unknown);
+  }
+
+  static boolean isAllocation(Node node) {
+    if (!(node instanceof Proj) || !(node.getPred(0) instanceof Proj)) {
+      return false;
+    }
+    Node call = node.getPred(0).getPred(0);
+    return call instanceof Call && AliasAnalyzer.isCalloc((Call) call);
+  }
+
+  private Object find(Object element) {
+    Object parent = parents.get(element);
+    if (parent == null) {
+      return element;
+    }
+    Object root = find(parent);
+    parents.put(element, root);
+    return root;
+  }
+
+  private void union(Object rootA, Object rootB) {
+    if (rootA.equals(rootB)) {
+      return;
+    }
+    // The unknown class always stays its own representant.
+    if (rootA == unknown) {
+      parents.put(rootB, rootA);
+    } else {
+      parents.put(rootA, rootB);
+    }
+  }
+
+  /**
+   * Whether the Load or Store {@code access} may read or write memory {@code sideEffect} writes or
+   * reads.
+   */
+  boolean mayAlias(Node access, Node sideEffect) {
+    Optional<Location> location = locationOf(access);
+    if (!location.isPresent()) {
+      return true;
+    }
+    if (sideEffect instanceof Call) {
+      // calloc only touches fresh memory.
+      return !AliasAnalyzer.isCalloc((Call) sideEffect)
+          && find(location.get().aliasClass) == unknown;
+    }
+    if (sideEffect instanceof Load || sideEffect instanceof Store) {
+      return locationOf(sideEffect).map(other -> other.mayAlias(location.get())).orElse(true);
+    }
+    return true;
+  }
+
+  private Optional<Location> locationOf(Node access) {
+    Node ptr = access.getPred(1);
+    if (ptr instanceof Member) {
+      Member member = (Member) ptr;
+      return Optional.of(new Location(classOf(member.getPtr()), member.getEntity(), null, 0));
+    }
+    if (ptr instanceof Sel) {
+      Sel sel = (Sel) ptr;
+      Type elementType = ((ArrayType) sel.getType()).getElementType();
+      int index =
+          NodeUtils.asConst(sel.getIndex()).map(i -> i.getTarval().asInt()).orElse(UNKNOWN_INDEX);
+      return Optional.of(new Location(classOf(sel.getPtr()), null, elementType, index));
+    }
+    return Optional.empty();
+  }
+
+  /** A field of an object or an element of an array, in some alias class. */
+  private class Location {
+    private final Object aliasClass;
+    private final Entity field;
+    private final Type elementType;
+    private final int index;
+
+    private Location(Object aliasClass, Entity field, Type elementType, int index) {
+      this.aliasClass = aliasClass;
+      this.field = field;
+      this.elementType = elementType;
+      this.index = index;
+    }
+
+    private boolean mayAlias(Location other) {
+      if (!find(aliasClass).equals(find(other.aliasClass))) {
+        return false;
+      }
+      if (field != null || other.field != null) {
+        // Objects and arrays never overlap.
+        return Objects.equals(field, other.field);
+      }
+      if (!elementType.equals(other.elementType)) {
+        return false;
+      }
+      return index == UNKNOWN_INDEX || other.index == UNKNOWN_INDEX || index == other.index;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "AliasClasses" + seq(parents.entrySet()).toString(", ");
+  }
+}
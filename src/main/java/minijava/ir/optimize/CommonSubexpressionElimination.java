@@ -2,6 +2,7 @@ package minijava.ir.optimize;
 
 import static org.jooq.lambda.Seq.seq;
 
+import firm.BackEdges;
 import firm.Graph;
 import firm.Mode;
 import firm.nodes.*;
@@ -28,9 +29,14 @@ import minijava.ir.utils.NodeUtils;
  * <p>This produces a Forest of dominance trees (modulo nodes in the same block) in UnionFind-style
  * fashion. With that information in place, we can substitute all similar nodes by their dominance
  * root after path compression (yielding a forest of star graphs).
+ *
+ * <p>Calls to pure or read-only methods according to {@link MethodSummaries} are handled like
+ * Loads: They compute the same result for the same arguments and memory state.
  */
 public class CommonSubexpressionElimination extends BaseOptimizer {
 
+  private final MethodSummaries summaries;
+
   /**
    * We cache HashedNode instances for Nodes we already encountered. This also breaks cycles in the
    * analysis.
@@ -45,6 +51,14 @@ public class CommonSubexpressionElimination extends BaseOptimizer {
    */
   private final Map<HashedNode, Set<Node>> similarNodes = new HashMap<>();
 
+  public CommonSubexpressionElimination() {
+    this(new MethodSummaries());
+  }
+
+  public CommonSubexpressionElimination(MethodSummaries summaries) {
+    this.summaries = summaries;
+  }
+
   @Override
   public boolean optimize(Graph graph) {
     this.graph = graph;
@@ -89,6 +103,20 @@ public class CommonSubexpressionElimination extends BaseOptimizer {
 
       NodeUtils.redirectProjsOnto(redundant, replacement);
       Graph.killNode(redundant);
+      if (replacement instanceof Call) {
+        // The result Projs now hang off the same result tuple Proj
+        for (Node results : seq(BackEdges.getOuts(replacement)).map(be -> be.node).toList()) {
+          if (results.getMode().equals(Mode.getT())) {
+            seq(BackEdges.getOuts(results))
+                .map(be -> be.node)
+                .ofType(Proj.class)
+                .map(Proj::getNum)
+                .distinct()
+                .toList()
+                .forEach(num -> NodeUtils.mergeProjsWithNum(results, num));
+          }
+        }
+      }
     } else {
       Graph.exchange(edge.getKey(), edge.getValue());
     }
@@ -181,6 +209,17 @@ public class CommonSubexpressionElimination extends BaseOptimizer {
     binaryNode(node);
   }
 
+  @Override
+  public void visit(Call node) {
+    if (summaries.effectOf(node) == MethodSummaries.Effect.ARBITRARY) {
+      defaultVisit(node);
+      return;
+    }
+    // The memory pred, the callee's Address and the arguments.
+    hashWithSalt(node.getClass().hashCode(), seq(node.getPreds()).toArray(Node[]::new))
+        .ifPresent(hash -> updateHashMapping(node, hash));
+  }
+
   @Override
   public void visit(Cmp node) {
     binaryNode(node);
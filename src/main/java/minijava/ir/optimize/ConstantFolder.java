@@ -18,11 +18,16 @@ import java.util.function.Function;
 import minijava.ir.utils.FirmUtils;
 import minijava.ir.utils.GraphUtils;
 
+/**
+ * Propagates constants through the graph with an optimistic lattice, assuming that all control flow
+ * edges are executable. See {@link SparseConditionalConstantPropagation} for a variant which
+ * doesn't.
+ */
 public class ConstantFolder extends BaseOptimizer {
 
   private static final Set<Mode> HANDLED_MODES =
       ImmutableSet.of(Mode.getBu(), Mode.getb(), Mode.getIs(), Mode.getLs());
-  private Map<Node, TargetValue> latticeMap;
+  protected Map<Node, TargetValue> latticeMap;
 
   @Override
   public boolean optimize(Graph graph) {
@@ -77,7 +82,7 @@ public class ConstantFolder extends BaseOptimizer {
         .findFirst();
   }
 
-  private TargetValue getValue(Node n) {
+  protected TargetValue getValue(Node n) {
     return latticeMap.getOrDefault(n, TargetValue.getUnknown());
   }
 
@@ -206,7 +211,7 @@ public class ConstantFolder extends BaseOptimizer {
     }
   }
 
-  private void updateValue(Node node, TargetValue newValue) {
+  protected void updateValue(Node node, TargetValue newValue) {
     TargetValue previousValue = latticeMap.put(node, newValue);
     if (previousValue == null) {
       previousValue = TargetValue.getUnknown();
@@ -281,7 +286,7 @@ public class ConstantFolder extends BaseOptimizer {
     visitBinaryOperation((lhs, rhs) -> lhs.sub(rhs), node, node.getLeft(), node.getRight());
   }
 
-  private static TargetValue supremum(TargetValue a, TargetValue b) {
+  protected static TargetValue supremum(TargetValue a, TargetValue b) {
     if (a.equals(b)) {
       return a; // or b
     }
@@ -0,0 +1,154 @@
+package minijava.ir.optimize;
+
+import static org.jooq.lambda.Seq.seq;
+
+import firm.BackEdges;
+import firm.Entity;
+import firm.Graph;
+import firm.TargetValue;
+import firm.nodes.Call;
+import firm.nodes.Const;
+import firm.nodes.Node;
+import firm.nodes.Proj;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import minijava.ir.utils.FirmUtils;
+import minijava.ir.utils.GraphUtils;
+import minijava.ir.utils.NodeUtils;
+
+/**
+ * Clones methods which are called with the same constant arguments from multiple call sites, but
+ * are too big to be inlined. The arguments are replaced by the constants in the clone, which is
+ * then optimized by the intraprocedural optimizations, and the matching calls are redirected to it.
+ *
+ * <p>If all calls to a method agree on an argument, the {@link InterproceduralOptimizer} already
+ * propagates it into the original, so we only specialize for patterns which are seen at some but
+ * not all call sites. Only integer and boolean constants are considered.
+ *
+ * <p>Clones get the linker name of the original with a {@code .constprop.n} suffix, just as GCC
+ * does. Since only callees in the optimized set of graphs are specialized, the names stay unique
+ * even with {@link minijava.ParallelOptimization}.
+ */
+public class FunctionSpecialization {
+  /** A pattern of constant arguments has to be seen at least this often. */
+  private static final int MIN_CALL_SITES = 2;
+  /** We create no more than this many clones per method. */
+  private static final int MAX_CLONES_PER_METHOD = 2;
+  /** Cloning bigger methods would blow up code size too much. */
+  private static final int MAX_METHOD_SIZE = 3000;
+
+  private final ProgramMetrics metrics;
+  private final OptimizerFramework framework;
+
+  public FunctionSpecialization(ProgramMetrics metrics, OptimizerFramework framework) {
+    this.metrics = metrics;
+    this.framework = framework;
+  }
+
+  /**
+   * Specializes the methods in {@code graphs} for calls from {@code graphs}.
+   *
+   * @return The new specialized graphs.
+   */
+  public Set<Graph> specialize(Set<Graph> graphs) {
+    Set<Graph> callers = new HashSet<>(metrics.reachableFromMain());
+    callers.retainAll(graphs);
+
+    // callee -> constant arguments by index -> calls
+    Map<Graph, Map<Map<Integer, Long>, List<Call>>> patterns = new HashMap<>();
+    Map<Graph, Integer> callCounts = new HashMap<>();
+    for (Graph caller : callers) {
+      for (Call call : seq(GraphUtils.topologicalOrder(caller)).ofType(Call.class)) {
+        Optional<Graph> callee = MethodSummaries.callee(call);
+        if (!callee.isPresent()
+            || !graphs.contains(callee.get())
+            || ProgramMetrics.isMain(callee.get())) {
+          continue;
+        }
+        callCounts.merge(callee.get(), 1, Integer::sum);
+        Map<Integer, Long> constants = constantArguments(call);
+        if (!constants.isEmpty()) {
+          patterns
+              .computeIfAbsent(callee.get(), k -> new HashMap<>())
+              .computeIfAbsent(constants, k -> new ArrayList<>())
+              .add(call);
+        }
+      }
+    }
+
+    Set<Graph> clones = new HashSet<>();
+    for (Map.Entry<Graph, Map<Map<Integer, Long>, List<Call>>> entry : patterns.entrySet()) {
+      Graph callee = entry.getKey();
+      if (metrics.getGraphInfo(callee).size > MAX_METHOD_SIZE) {
+        continue;
+      }
+      int totalCalls = callCounts.get(callee);
+      List<List<Call>> candidates =
+          seq(entry.getValue().values())
+              .filter(calls -> calls.size() >= MIN_CALL_SITES && calls.size() < totalCalls)
+              .sorted(calls -> -calls.size())
+              .limit(MAX_CLONES_PER_METHOD)
+              .toList();
+      for (int i = 0; i < candidates.size(); ++i) {
+        List<Call> calls = candidates.get(i);
+        Graph clone = specialize(callee, calls.get(0), i);
+        for (Call call : calls) {
+          call.setPtr(call.getGraph().newAddress(clone.getEntity()));
+          metrics.invalidate(call.getGraph());
+        }
+        clones.add(clone);
+      }
+    }
+    return clones;
+  }
+
+  /** The integer and boolean constants passed to {@code call} by argument index. */
+  private static Map<Integer, Long> constantArguments(Call call) {
+    Map<Integer, Long> constants = new HashMap<>();
+    // The first two preds are M and the function's Address
+    for (int i = 2; i < call.getPredCount(); ++i) {
+      Optional<Const> arg = NodeUtils.asConst(call.getPred(i));
+      if (arg.isPresent() && arg.get().getMode().isInt()) {
+        constants.put(i - 2, arg.get().getTarval().asLong());
+      }
+    }
+    return constants;
+  }
+
+  /** Clones {@code callee} with the constant arguments of {@code call}. */
+  private Graph specialize(Graph callee, Call call, int cloneIndex) {
+    Entity original = callee.getEntity();
+    String suffix = ".constprop." + cloneIndex;
+    Entity entity =
+        new Entity(original.getOwner(), original.getName() + suffix, original.getType());
+    entity.setLdIdent(original.getLdName() + suffix);
+    Graph clone = GraphUtils.copyGraph(callee, entity);
+
+    FirmUtils.withBackEdges(
+        clone,
+        () -> {
+          List<Proj> arguments =
+              seq(BackEdges.getOuts(clone.getArgs()))
+                  .map(be -> be.node)
+                  .ofType(Proj.class)
+                  .toList();
+          for (Proj argument : arguments) {
+            Node passed = call.getPred(argument.getNum() + 2);
+            Optional<Const> constant = NodeUtils.asConst(passed);
+            if (constant.isPresent() && constant.get().getMode().isInt()) {
+              TargetValue value = constant.get().getTarval();
+              Graph.exchange(argument, clone.newConst(value));
+            }
+          }
+        });
+
+    framework.optimizeUntilFixedpoint(clone);
+    metrics.updateGraphInfo(clone);
+    return clone;
+  }
+}
@@ -0,0 +1,224 @@
+package minijava.ir.optimize;
+
+import firm.BackEdges;
+import firm.Graph;
+import firm.nodes.Add;
+import firm.nodes.Anchor;
+import firm.nodes.And;
+import firm.nodes.Block;
+import firm.nodes.Conv;
+import firm.nodes.End;
+import firm.nodes.Load;
+import firm.nodes.Member;
+import firm.nodes.Minus;
+import firm.nodes.Mul;
+import firm.nodes.Mux;
+import firm.nodes.Node;
+import firm.nodes.Not;
+import firm.nodes.Or;
+import firm.nodes.Phi;
+import firm.nodes.Proj;
+import firm.nodes.Sel;
+import firm.nodes.Shl;
+import firm.nodes.Shr;
+import firm.nodes.Shrs;
+import firm.nodes.Sub;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import minijava.ir.Dominance;
+import minijava.ir.optimize.licm.LoopNestTree;
+import minijava.ir.utils.FirmUtils;
+import minijava.ir.utils.GraphUtils;
+import minijava.ir.utils.NodeUtils;
+
+/**
+ * Global code motion after Click (<i>Global Code Motion / Global Value Numbering</i>, PLDI 1995).
+ * Every node not tied to its block is placed in the latest block of the shallowest loop nest
+ * between the earliest and the latest legal block:
+ *
+ * <ul>
+ *   <li>The earliest block is the deepest block in the dominator tree of the inputs' (earliest)
+ *       blocks.
+ *   <li>The latest block is the deepest common dominator of all usages. For Phis, that's the
+ *       predecessor block of the corresponding edge.
+ * </ul>
+ *
+ * <p>This subsumes both the {@link FloatInTransformation}, which only moves nodes towards their
+ * usages, and the hoisting part of {@link LoopInvariantCodeMotion}. Unlike the latter, it doesn't
+ * invert loops: Arithmetic may be hoisted in front of a loop which isn't entered at all, which is
+ * fine since it can't trap or have side effects. Nodes which may trap (e.g. Loads or Divs) are only
+ * moved towards their usages, just as the {@link FloatInTransformation} does. Nodes with memory
+ * effects (e.g. Calls or Stores) aren't moved at all.
+ */
+public class GlobalCodeMotion extends BaseOptimizer {
+
+  private final Map<Block, Integer> domDepths = new HashMap<>();
+  private final Map<Block, Integer> loopDepths = new HashMap<>();
+  private final Map<Node, Block> earliest = new HashMap<>();
+
+  @Override
+  public boolean optimize(Graph graph) {
+    this.graph = graph;
+    this.hasChanged = false;
+    domDepths.clear();
+    loopDepths.clear();
+    earliest.clear();
+    FirmUtils.withBackEdges(
+        graph,
+        () -> {
+          List<Node> order = GraphUtils.topologicalOrder(graph);
+          computeLoopDepths(LoopNestTree.forGraph(graph, order), 0);
+          for (Node node : order) {
+            scheduleEarly(node);
+          }
+          for (Node node : GraphUtils.reverseTopologicalOrder(graph)) {
+            scheduleLate(node);
+          }
+        });
+    return hasChanged;
+  }
+
+  private void computeLoopDepths(LoopNestTree loop, int depth) {
+    for (Block block : loop.loopBlocks) {
+      loopDepths.put(block, depth);
+    }
+    for (LoopNestTree child : loop.children) {
+      computeLoopDepths(child, depth + 1);
+    }
+  }
+
+  private int loopDepth(Block block) {
+    return loopDepths.getOrDefault(block, 0);
+  }
+
+  private int domDepth(Block block) {
+    return domDepths.computeIfAbsent(block, b -> (int) Dominance.dominatorPath(b).count());
+  }
+
+  /**
+   * Calls, Stores and everything else with memory effects stay where they are. Their effects must
+   * happen on all paths through their block, even if the memory state is only kept alive by End.
+   */
+  private static boolean isMovable(Node node) {
+    if (node instanceof Proj || NodeUtils.isTiedToBlock(node)) {
+      return false;
+    }
+    return node instanceof Load || !NodeUtils.dependsOnMemory(node);
+  }
+
+  /**
+   * Arithmetic which neither traps nor has side effects, so we may compute it speculatively. Cmps
+   * are missing on purpose: The flags they compute don't survive the end of a block anyway.
+   */
+  private static boolean isSpeculatable(Node node) {
+    return node instanceof Add
+        || node instanceof Sub
+        || node instanceof Mul
+        || node instanceof Minus
+        || node instanceof And
+        || node instanceof Or
+        || node instanceof Not
+        || node instanceof Shl
+        || node instanceof Shr
+        || node instanceof Shrs
+        || node instanceof Conv
+        || node instanceof Mux
+        || node instanceof Member
+        || node instanceof Sel;
+  }
+
+  private void scheduleEarly(Node node) {
+    if (!isMovable(node)) {
+      return;
+    }
+    Block early = (Block) node.getBlock();
+    if (isSpeculatable(node)) {
+      early = graph.getStartBlock();
+      for (Node pred : node.getPreds()) {
+        Block candidate = earliest.getOrDefault(pred, (Block) pred.getBlock());
+        if (domDepth(candidate) > domDepth(early)) {
+          early = candidate;
+        }
+      }
+    }
+    earliest.put(node, early);
+  }
+
+  private void scheduleLate(Node node) {
+    Block early = earliest.get(node);
+    if (early == null) {
+      return;
+    }
+    Optional<Block> optLate = latestBlock(node);
+    if (!optLate.isPresent() || !Dominance.dominates(early, optLate.get())) {
+      // Either dead or used by control flow, so we leave it alone.
+      return;
+    }
+
+    // Walk up the dominator tree and pick the block with the shallowest loop nest. Among equally
+    // deep blocks, the latest wins, so that we don't lengthen live ranges for nothing.
+    Block best = optLate.get();
+    for (Block block : Dominance.dominatorPath(optLate.get())) {
+      if (loopDepth(block) < loopDepth(best)) {
+        best = block;
+      }
+      if (block.equals(early)) {
+        break;
+      }
+    }
+
+    if (!best.equals(node.getBlock())) {
+      moveWithProjs(node, best);
+      hasChanged = true;
+    }
+  }
+
+  /** Projs always stay with their tuple. */
+  private static void moveWithProjs(Node node, Block block) {
+    node.setBlock(block);
+    for (BackEdges.Edge usage : BackEdges.getOuts(node)) {
+      if (usage.node instanceof Proj) {
+        moveWithProjs(usage.node, block);
+      }
+    }
+  }
+
+  /**
+   * The deepest common dominator of all usages of {@code node}, looking through Projs. Empty if
+   * there are none or if one of them is a block. Keep-alive edges from End count as usages in the
+   * block of {@code node}.
+   */
+  private static Optional<Block> latestBlock(Node node) {
+    Block late = null;
+    for (BackEdges.Edge usage : BackEdges.getOuts(node)) {
+      Node user = usage.node;
+      Optional<Block> usageBlock;
+      if (user instanceof Anchor) {
+        continue;
+      } else if (user instanceof End) {
+        usageBlock = Optional.of((Block) node.getBlock());
+      } else if (user instanceof Block) {
+        return Optional.empty();
+      } else if (user instanceof Proj) {
+        usageBlock = latestBlock(user);
+        if (!usageBlock.isPresent()) {
+          if (BackEdges.getNOuts(user) == 0) {
+            continue;
+          }
+          return Optional.empty();
+        }
+      } else if (user instanceof Phi) {
+        usageBlock = Optional.of((Block) user.getBlock().getPred(usage.pos).getBlock());
+      } else {
+        usageBlock = Optional.of((Block) user.getBlock());
+      }
+      late =
+          late == null
+              ? usageBlock.get()
+              : Dominance.deepestCommonDominator(late, usageBlock.get());
+    }
+    return Optional.ofNullable(late);
+  }
+}
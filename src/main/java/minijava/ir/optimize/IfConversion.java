@@ -0,0 +1,147 @@
+package minijava.ir.optimize;
+
+import static org.jooq.lambda.Seq.seq;
+
+import firm.Graph;
+import firm.Mode;
+import firm.nodes.Add;
+import firm.nodes.Block;
+import firm.nodes.Cmp;
+import firm.nodes.Cond;
+import firm.nodes.Const;
+import firm.nodes.Jmp;
+import firm.nodes.Minus;
+import firm.nodes.Mul;
+import firm.nodes.Node;
+import firm.nodes.Phi;
+import firm.nodes.Proj;
+import firm.nodes.Sub;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import minijava.ir.Dominance;
+import minijava.ir.utils.FirmUtils;
+import minijava.ir.utils.GraphUtils;
+import minijava.ir.utils.NodeUtils;
+
+/**
+ * Replaces small diamonds and triangles in the control flow by {@link firm.nodes.Mux} nodes, which
+ * the backends emit as conditional moves instead of unpredictable branches.
+ *
+ * <p>A join block with two predecessors qualifies if both edges come from the same {@link Cond},
+ * either directly or through a block which does nothing but cheap arithmetic. That arithmetic is
+ * then computed unconditionally in the block of the Cond, so there may only be a few such nodes and
+ * they must neither trap nor have side effects. Every Phi in the join block becomes a Mux.
+ *
+ * <p>Muxes are opaque to the other optimizations, so this should run after them. We only convert
+ * integer Phis: There is no 8 bit conditional move and the alias analysis doesn't follow references
+ * through Muxes.
+ */
+public class IfConversion extends BaseOptimizer {
+  /** How many nodes we are willing to compute unconditionally, over both arms. */
+  private static final int MAX_SPECULATED_NODES = 4;
+  /** Each Mux costs a compare and a few moves in our backend. */
+  private static final int MAX_MUXES = 2;
+
+  @Override
+  public boolean optimize(Graph graph) {
+    this.graph = graph;
+    this.hasChanged = false;
+    FirmUtils.withBackEdges(
+        graph,
+        () -> {
+          for (Block block : seq(GraphUtils.topologicalOrder(graph)).ofType(Block.class).toList()) {
+            tryConvert(block);
+          }
+        });
+    if (hasChanged) {
+      Dominance.invalidateDominace();
+    }
+    return hasChanged;
+  }
+
+  private void tryConvert(Block join) {
+    if (join.getPredCount() != 2) {
+      return;
+    }
+    Proj[] edges = new Proj[2];
+    List<Node> speculated = new ArrayList<>();
+    for (int i = 0; i < 2; ++i) {
+      Node pred = join.getPred(i);
+      if (pred instanceof Jmp) {
+        // The edge goes through an arm, which has to be entered from a Cond.
+        Block arm = (Block) pred.getBlock();
+        if (arm.getPredCount() != 1 || !(arm.getPred(0) instanceof Proj)) {
+          return;
+        }
+        if (!collectSpeculatableNodes(arm, (Jmp) pred, speculated)) {
+          return;
+        }
+        edges[i] = (Proj) arm.getPred(0);
+      } else if (pred instanceof Proj) {
+        edges[i] = (Proj) pred;
+      } else {
+        return;
+      }
+      if (!(edges[i].getPred() instanceof Cond)) {
+        return;
+      }
+    }
+
+    Cond cond = (Cond) edges[0].getPred();
+    if (!cond.equals(edges[1].getPred())
+        || edges[0].getNum() == edges[1].getNum()
+        || !(cond.getSelector() instanceof Cmp)
+        || cond.getBlock().equals(join)
+        || speculated.size() > MAX_SPECULATED_NODES) {
+      return;
+    }
+
+    List<Phi> phis = seq(NodeUtils.getNodesInBlock(join)).ofType(Phi.class).toList();
+    if (phis.isEmpty()
+        || phis.size() > MAX_MUXES
+        || !seq(phis).allMatch(phi -> phi.getMode().equals(Mode.getIs()))) {
+      // Without Phis, we would just compute the arms for nothing. Memory Phis mean side effects.
+      return;
+    }
+
+    Block head = (Block) cond.getBlock();
+    int trueEdge = edges[0].getNum() == Cond.pnTrue ? 0 : 1;
+    for (Node node : speculated) {
+      node.setBlock(head);
+    }
+    for (Phi phi : phis) {
+      Node mux =
+          graph.newMux(head, cond.getSelector(), phi.getPred(1 - trueEdge), phi.getPred(trueEdge));
+      Graph.exchange(phi, mux);
+    }
+    // Now it doesn't matter which edge we take, just like for a constant condition in the
+    // ConstantControlFlowOptimizer. The other edge has to be removed by the UnreachableCodeRemover.
+    Graph.exchange(edges[trueEdge], graph.newJmp(head));
+    Graph.exchange(edges[1 - trueEdge], graph.newBad(Mode.getANY()));
+    hasChanged = true;
+  }
+
+  /**
+   * Adds the nodes of {@code arm} except its {@code jmp} to {@code speculated}, if they can be
+   * computed unconditionally.
+   */
+  private static boolean collectSpeculatableNodes(Block arm, Jmp jmp, List<Node> speculated) {
+    Set<Node> nodes = NodeUtils.getNodesInBlock(arm);
+    for (Node node : nodes) {
+      if (node.equals(jmp) || node instanceof Const) {
+        continue;
+      }
+      boolean cheapAndSafe =
+          node instanceof Add
+              || node instanceof Sub
+              || node instanceof Mul
+              || node instanceof Minus;
+      if (!cheapAndSafe) {
+        return false;
+      }
+      speculated.add(node);
+    }
+    return true;
+  }
+}
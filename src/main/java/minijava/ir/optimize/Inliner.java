@@ -8,12 +8,16 @@ import firm.MethodType;
 import firm.Mode;
 import firm.nodes.*;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import minijava.ir.Dominance;
 import minijava.ir.utils.FirmUtils;
 import minijava.ir.utils.GraphUtils;
 import minijava.ir.utils.NodeUtils;
+import minijava.ir.utils.Profile;
 import org.jooq.lambda.tuple.Tuple2;
 
 public class Inliner extends BaseOptimizer {
@@ -23,22 +27,37 @@ public class Inliner extends BaseOptimizer {
    * of whether the graph already has more than {@link #MAX_NODES} nodes or not.
    */
   private static final int MAX_LEAF_SIZE_TO_ALWAYS_INLINE = 80;
+  /** Callees which are hot according to the {@link #profile} may grow the caller this much more. */
+  private static final int HOT_CALLEE_GROWTH_FACTOR = 2;
 
   private final ProgramMetrics metrics;
+  /**
+   * Call counts of a previous run. Calls to hot methods are inlined first and with a bigger budget,
+   * calls in or to methods which were never called aren't inlined at all, except for small leafs.
+   */
+  private final Profile profile;
+
   private final Set<Call> callsToInline = new HashSet<>();
+  /** All calls to graphs we know of, so that we can tell when we inlined the last one. */
+  private final Set<Call> calls = new HashSet<>();
 
   public final boolean onlyLeafs;
 
   public Inliner(ProgramMetrics metrics, boolean onlyLeafs) {
+    this(metrics, onlyLeafs, Profile.EMPTY);
+  }
+
+  public Inliner(ProgramMetrics metrics, boolean onlyLeafs, Profile profile) {
     this.metrics = metrics;
     this.onlyLeafs = onlyLeafs;
+    this.profile = profile;
   }
 
   @Override
   public boolean optimize(Graph graph) {
     this.graph = graph;
     this.callsToInline.clear();
-    metrics.updateGraphInfo(graph);
+    this.calls.clear();
     // Not sure if we really need more than one pass here, but better be safe.
     fixedPointIteration(GraphUtils.topologicalOrder(graph));
     boolean inlinedAny = inlineCandidates();
@@ -50,14 +69,25 @@ public class Inliner extends BaseOptimizer {
 
   private boolean inlineCandidates() {
     boolean hasChanged = false;
-    int size = metrics.graphInfos.get(graph).size;
-    for (Call call : callsToInline) {
-      int methodSize = metrics.graphInfos.get(call.getGraph()).size;
+    int size = metrics.getGraphInfo(graph).size;
+    Map<Graph, Long> remainingCalls = seq(calls).groupBy(this::callee, Collectors.counting());
+    // The most frequently called methods get the budget first
+    List<Call> candidates =
+        seq(callsToInline).sorted(call -> -profile.entryCount(callee(call)).orElse(0)).toList();
+    boolean callerIsCold = profile.isCold(graph);
+    for (Call call : candidates) {
+      Graph callee = callee(call);
+      int methodSize = metrics.getGraphInfo(call.getGraph()).size;
       int newGraphSize = methodSize + size;
-      if (onlyLeafs && methodSize < MAX_LEAF_SIZE_TO_ALWAYS_INLINE || newGraphSize < MAX_NODES) {
+      int maxNodes = profile.isHot(callee) ? MAX_NODES * HOT_CALLEE_GROWTH_FACTOR : MAX_NODES;
+      boolean isCold = callerIsCold || profile.isCold(callee);
+      if (onlyLeafs && methodSize < MAX_LEAF_SIZE_TO_ALWAYS_INLINE
+          || !isCold && newGraphSize < maxNodes) {
         inline(call);
         hasChanged = true;
         size = newGraphSize;
+        long remaining = remainingCalls.merge(callee, -1L, Long::sum);
+        metrics.recordInlining(graph, callee, remaining == 0);
       }
     }
     return hasChanged;
@@ -234,7 +264,8 @@ public class Inliner extends BaseOptimizer {
       // This was a foreign/native call, where we don't have access to the graph.
       return;
     }
-    ProgramMetrics.GraphInfo calleeInfo = metrics.graphInfos.get(callee(call));
+    calls.add(call);
+    ProgramMetrics.GraphInfo calleeInfo = metrics.getGraphInfo(callee);
     if (calleeInfo.isLoopBreaker) {
       // We try hard not to inline recursion too much, as it's not really beneficial.
       // We do want to inline other non-leaf nodes though! We identified loop breakers (e.g. nodes
@@ -0,0 +1,110 @@
+package minijava.ir.optimize;
+
+import static org.jooq.lambda.Seq.seq;
+
+import firm.BackEdges;
+import firm.Graph;
+import firm.Mode;
+import firm.TargetValue;
+import firm.nodes.Call;
+import firm.nodes.Node;
+import firm.nodes.Proj;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import minijava.ir.utils.FirmUtils;
+import minijava.ir.utils.GraphUtils;
+
+/**
+ * Applies the facts of {@link MethodSummaries} to a graph, without having to inline anything:
+ *
+ * <ul>
+ *   <li>Parameters which get the same constant at all call sites are replaced by that constant.
+ *   <li>Results of calls to methods which always return the same constant are replaced by it.
+ *   <li>Calls to pure methods are taken out of the memory chain, so that they only depend on their
+ *       arguments. Together with {@link CommonSubexpressionElimination}, which also merges calls to
+ *       read-only methods with the same memory state, they are treated just like other expressions.
+ * </ul>
+ *
+ * <p>The summaries have to be analysed for the whole program beforehand.
+ */
+public class InterproceduralOptimizer extends BaseOptimizer {
+
+  private final MethodSummaries summaries;
+
+  public InterproceduralOptimizer(MethodSummaries summaries) {
+    this.summaries = summaries;
+  }
+
+  @Override
+  public boolean optimize(Graph graph) {
+    this.graph = graph;
+    this.hasChanged = false;
+    FirmUtils.withBackEdges(
+        graph,
+        () -> {
+          specializeConstantArguments();
+          for (Call call : seq(GraphUtils.topologicalOrder(graph)).ofType(Call.class).toList()) {
+            Optional<Graph> callee = MethodSummaries.callee(call);
+            if (!callee.isPresent()) {
+              continue;
+            }
+            summaries.constantResult(callee.get()).ifPresent(tv -> replaceResult(call, tv));
+            if (summaries.effectOf(callee.get()) == MethodSummaries.Effect.PURE) {
+              detachFromMemory(call);
+            }
+          }
+        });
+    return hasChanged;
+  }
+
+  private void specializeConstantArguments() {
+    Map<Integer, TargetValue> constants = summaries.constantArguments(graph);
+    if (constants.isEmpty()) {
+      return;
+    }
+    List<Proj> arguments =
+        seq(BackEdges.getOuts(graph.getArgs())).map(be -> be.node).ofType(Proj.class).toList();
+    for (Proj argument : arguments) {
+      TargetValue constant = constants.get(argument.getNum());
+      if (constant != null) {
+        Graph.exchange(argument, graph.newConst(constant));
+        hasChanged = true;
+      }
+    }
+  }
+
+  private void replaceResult(Call call, TargetValue constant) {
+    for (Node results : resultTuples(call)) {
+      for (BackEdges.Edge be : seq(BackEdges.getOuts(results)).toList()) {
+        Graph.exchange(be.node, graph.newConst(constant));
+        hasChanged = true;
+      }
+    }
+  }
+
+  /**
+   * Lets the successors of the call's memory Proj use the memory the call got, which the call then
+   * doesn't need anymore.
+   */
+  private void detachFromMemory(Call call) {
+    if (call.getMem().equals(graph.getNoMem())) {
+      return;
+    }
+    for (BackEdges.Edge be : seq(BackEdges.getOuts(call)).toList()) {
+      if (be.node.getMode().equals(Mode.getM())) {
+        Graph.exchange(be.node, call.getMem());
+      }
+    }
+    call.setMem(graph.getNoMem());
+    hasChanged = true;
+  }
+
+  /** The Projs of {@code call} which hold the tuple of its results. */
+  private static List<Node> resultTuples(Call call) {
+    return seq(BackEdges.getOuts(call))
+        .map(be -> be.node)
+        .filter(n -> n.getMode().equals(Mode.getT()))
+        .toList();
+  }
+}
@@ -0,0 +1,198 @@
+package minijava.ir.optimize;
+
+import static org.jooq.lambda.Seq.seq;
+
+import com.google.common.collect.Iterables;
+import firm.BackEdges;
+import firm.Graph;
+import firm.Mode;
+import firm.TargetValue;
+import firm.nodes.Block;
+import firm.nodes.Cmp;
+import firm.nodes.Cond;
+import firm.nodes.Const;
+import firm.nodes.End;
+import firm.nodes.Node;
+import firm.nodes.Phi;
+import firm.nodes.Proj;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import minijava.ir.Dominance;
+import minijava.ir.utils.FirmUtils;
+import minijava.ir.utils.GraphUtils;
+import minijava.ir.utils.NodeUtils;
+import minijava.ir.utils.ProjPair;
+
+/**
+ * Redirects predecessors of a block which only tests a {@link Phi} straight to the successor they
+ * would take, if the Phi has a constant value on their edge. This is the case for code like {@code
+ * boolean b = x && y; if (b) ...}, which the IREmitter translates into a Phi of 0 and 1 which is
+ * tested again afterwards.
+ *
+ * <p>The block may only contain Phis and the {@link Cond} with its {@link Cmp}. On the threaded
+ * edge the test is already decided, so the duplicate of the block would be empty and the
+ * predecessor can jump right away. Both the predecessor and the original Cond then enter a new
+ * block in front of the successor, where the Phis of the original block are merged again for their
+ * usages below.
+ *
+ * <p>The threaded predecessor is replaced by a Bad, so the {@link UnreachableCodeRemover} has to
+ * run afterwards.
+ */
+public class JumpThreading extends BaseOptimizer {
+
+  @Override
+  public boolean optimize(Graph graph) {
+    this.graph = graph;
+    this.hasChanged = false;
+    FirmUtils.withBackEdges(
+        graph,
+        () -> {
+          for (Block block : seq(GraphUtils.topologicalOrder(graph)).ofType(Block.class).toList()) {
+            tryThread(block);
+          }
+        });
+    if (hasChanged) {
+      Dominance.invalidateDominace();
+    }
+    return hasChanged;
+  }
+
+  private void tryThread(Block block) {
+    if (block.getPredCount() < 2 || NodeUtils.hasIncomingBackEdge(block)) {
+      return;
+    }
+    Set<Node> nodes = NodeUtils.getNodesInBlock(block);
+    Optional<Cond> optCond = seq(nodes).ofType(Cond.class).findFirst();
+    if (!optCond.isPresent() || !(optCond.get().getSelector() instanceof Cmp)) {
+      return;
+    }
+    Cond cond = optCond.get();
+    Cmp cmp = (Cmp) cond.getSelector();
+    Optional<ProjPair> optProjs = NodeUtils.determineProjectionNodes(cond);
+    if (!optProjs.isPresent() || BackEdges.getNOuts(cmp) != 1) {
+      return;
+    }
+    ProjPair projs = optProjs.get();
+    boolean onlyTheTest =
+        seq(nodes)
+            .allMatch(
+                n ->
+                    n instanceof Phi
+                        || n.equals(cmp)
+                        || n.equals(cond)
+                        || n.equals(projs.true_)
+                        || n.equals(projs.false_));
+    boolean isKeptAlive = seq(BackEdges.getOuts(block)).anyMatch(be -> be.node instanceof End);
+    if (!onlyTheTest || isKeptAlive) {
+      return;
+    }
+
+    for (int i = 0; i < block.getPredCount(); ++i) {
+      Optional<Boolean> outcome = outcomeOnEdge(block, cmp, i);
+      if (!outcome.isPresent()) {
+        continue;
+      }
+      Proj taken = outcome.get() ? projs.true_ : projs.false_;
+      Proj other = outcome.get() ? projs.false_ : projs.true_;
+      if (thread(block, i, taken, other)) {
+        // Dominance changed, we will come back to the other predecessors in the next iteration.
+        return;
+      }
+    }
+  }
+
+  /** The outcome of {@code cmp} when {@code block} is entered through predecessor {@code i}. */
+  private static Optional<Boolean> outcomeOnEdge(Block block, Cmp cmp, int i) {
+    Optional<Const> left = NodeUtils.asConst(valueOnEdge(block, cmp.getLeft(), i));
+    Optional<Const> right = NodeUtils.asConst(valueOnEdge(block, cmp.getRight(), i));
+    if (!left.isPresent() || !right.isPresent()) {
+      return Optional.empty();
+    }
+    TargetValue lhs = left.get().getTarval();
+    TargetValue rhs = right.get().getTarval();
+    return Optional.of(lhs.compare(rhs).contains(cmp.getRelation()));
+  }
+
+  private static Node valueOnEdge(Block block, Node value, int i) {
+    if (value instanceof Phi && value.getBlock().equals(block)) {
+      return value.getPred(i);
+    }
+    return value;
+  }
+
+  /**
+   * Redirects predecessor {@code i} of {@code block} to the successor of {@code taken}. Returns
+   * false if we can't reconstruct SSA form for the usages of the Phis of {@code block}.
+   */
+  private boolean thread(Block block, int i, Proj taken, Proj other) {
+    Block target = successorOf(taken);
+    Block otherTarget = successorOf(other);
+    Node threaded = block.getPred(i);
+    if (target.getPredCount() != 1
+        || otherTarget.getPredCount() != 1
+        || !NodeUtils.isSingleExitNode(threaded)) {
+      // We rely on critical edges being split.
+      return false;
+    }
+
+    // Usages of the Phis below the target have to see the value on the threaded edge, too.
+    // Those below the other target don't, since block still dominates it. Everything else, e.g. a
+    // usage after both branches joined again, would need more Phis than we want to build here.
+    List<BackEdges.Edge> usagesBelowTarget = new ArrayList<>();
+    for (Phi phi : seq(NodeUtils.getNodesInBlock(block)).ofType(Phi.class)) {
+      for (BackEdges.Edge usage : BackEdges.getOuts(phi)) {
+        Block usageBlock = usageBlock(block, usage);
+        if (usageBlock.equals(block) || Dominance.dominates(otherTarget, usageBlock)) {
+          continue;
+        }
+        if (!Dominance.dominates(target, usageBlock)) {
+          return false;
+        }
+        usagesBelowTarget.add(usage);
+      }
+    }
+
+    // The new block of the threaded edge is just the predecessor itself, which has a single exit.
+    // The edge from the Cond needs splitting though.
+    Block join = (Block) graph.newBlock(new Node[] {taken, threaded});
+    NodeUtils.splitCriticalEdge(join, 0);
+    target.setPred(0, graph.newJmp(join));
+
+    Map<Node, Node> merged = new HashMap<>();
+    for (BackEdges.Edge usage : usagesBelowTarget) {
+      Node phi = usage.node.getPred(usage.pos);
+      Node mergedPhi =
+          merged.computeIfAbsent(
+              phi, p -> graph.newPhi(join, new Node[] {p, p.getPred(i)}, p.getMode()));
+      usage.node.setPred(usage.pos, mergedPhi);
+    }
+
+    block.setPred(i, graph.newBad(Mode.getANY()));
+    Dominance.invalidateDominace();
+    hasChanged = true;
+    return true;
+  }
+
+  private static Block successorOf(Proj proj) {
+    return (Block) Iterables.getOnlyElement(BackEdges.getOuts(proj)).node;
+  }
+
+  /**
+   * The block in which {@code usage} needs its value. For Phis, that's the predecessor block of the
+   * corresponding edge, except for when that's {@code block} itself, where it's the successor.
+   */
+  private static Block usageBlock(Block block, BackEdges.Edge usage) {
+    Block usageBlock = (Block) usage.node.getBlock();
+    if (usage.node instanceof Phi) {
+      Block predBlock = (Block) usageBlock.getPred(usage.pos).getBlock();
+      if (!predBlock.equals(block)) {
+        return predBlock;
+      }
+    }
+    return usageBlock;
+  }
+}
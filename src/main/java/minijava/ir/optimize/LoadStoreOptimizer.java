@@ -7,17 +7,30 @@ import firm.BackEdges.Edge;
 import firm.Graph;
 import firm.Mode;
 import firm.nodes.Block;
+import firm.nodes.Call;
 import firm.nodes.Load;
 import firm.nodes.Node;
 import firm.nodes.Proj;
 import firm.nodes.Store;
 import java.util.List;
+import java.util.Optional;
 import minijava.ir.Dominance;
 import minijava.ir.utils.GraphUtils;
 import minijava.ir.utils.NodeUtils;
 
 public class LoadStoreOptimizer extends BaseOptimizer {
 
+  /** Calls to read-only methods don't change memory, so we can look past them. */
+  private final MethodSummaries summaries;
+
+  public LoadStoreOptimizer() {
+    this(new MethodSummaries());
+  }
+
+  public LoadStoreOptimizer(MethodSummaries summaries) {
+    this.summaries = summaries;
+  }
+
   @Override
   public boolean optimize(Graph graph) {
     this.graph = graph;
@@ -67,7 +80,38 @@ public class LoadStoreOptimizer extends BaseOptimizer {
       }
       NodeUtils.mergeProjsWithNum(previousStore, Store.pnM);
       Graph.killNode(node);
+    } else if (lastSideEffect instanceof Call) {
+      Optional<Store> previousStore = storeBeforeReadOnlyCalls(node.getMem());
+      if (!previousStore.isPresent() || !previousStore.get().getPtr().equals(node.getPtr())) {
+        return;
+      }
+
+      hasChanged = true;
+      // The calls still have to happen before anything after the Load, so the M Projs of the Load
+      // are replaced by the memory of the Load, not of the Store.
+      for (BackEdges.Edge be : seq(BackEdges.getOuts(node)).toList()) {
+        Node replacement =
+            be.node.getMode().equals(Mode.getM()) ? node.getMem() : previousStore.get().getValue();
+        Graph.exchange(be.node, replacement);
+      }
+      Graph.killNode(node);
+    }
+  }
+
+  /** Follows {@code mem} up through calls to read-only methods, until it hits a Store. */
+  private Optional<Store> storeBeforeReadOnlyCalls(Node mem) {
+    while (mem instanceof Proj) {
+      Node sideEffect = mem.getPred(0);
+      if (sideEffect instanceof Store) {
+        return Optional.of((Store) sideEffect);
+      }
+      if (!(sideEffect instanceof Call)
+          || summaries.effectOf((Call) sideEffect) == MethodSummaries.Effect.ARBITRARY) {
+        return Optional.empty();
+      }
+      mem = ((Call) sideEffect).getMem();
     }
+    return Optional.empty();
   }
 
   @Override
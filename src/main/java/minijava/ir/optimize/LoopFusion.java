@@ -0,0 +1,318 @@
+package minijava.ir.optimize;
+
+import static org.jooq.lambda.Seq.seq;
+
+import com.google.common.collect.Iterables;
+import firm.BackEdges;
+import firm.Graph;
+import firm.Mode;
+import firm.Relation;
+import firm.nodes.Block;
+import firm.nodes.End;
+import firm.nodes.Load;
+import firm.nodes.Node;
+import firm.nodes.Phi;
+import firm.nodes.Proj;
+import firm.nodes.Sel;
+import firm.nodes.Store;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import minijava.ir.Dominance;
+import minijava.ir.optimize.licm.CountedLoop;
+import minijava.ir.optimize.licm.LoopNestTree;
+import minijava.ir.utils.FirmUtils;
+import minijava.ir.utils.GraphUtils;
+import minijava.ir.utils.NodeUtils;
+
+/**
+ * Fuses two adjacent counted loops with the same iteration space into one, e.g.
+ *
+ * <pre>
+ *   while (i < n) { a[i] = i; i = i + 1; }
+ *   while (j < n) { sum = sum + a[j]; j = j + 1; }
+ * </pre>
+ *
+ * <p>The body of the second loop is appended to the body of the first one and its header Phis move
+ * to the first header, so that both loops run in a single pass with half the loop overhead. The
+ * second induction variable then equals the first and is merged by CSE.
+ *
+ * <p>We only fuse loops which consist of a header and a single body block, whose induction
+ * variables start at the same value, step by the same amount and are tested against the same bound.
+ * The second loop must directly follow the first one and may not use any value of it other than
+ * memory. Memory accesses of both loops may only alias if they access the element of the same array
+ * at the induction variable, which is the same element in the same iteration of the fused loop.
+ * Calls in either loop prevent fusion.
+ */
+public class LoopFusion extends BaseOptimizer {
+
+  private AliasClasses aliases;
+
+  @Override
+  public boolean optimize(Graph graph) {
+    this.graph = graph;
+    this.hasChanged = false;
+    FirmUtils.withBackEdges(
+        graph,
+        () -> {
+          // Fusing changes the loop nest, so we start all over after every fusion.
+          while (fuseSomePair()) {
+            hasChanged = true;
+            Dominance.invalidateDominace();
+          }
+        });
+    return hasChanged;
+  }
+
+  private boolean fuseSomePair() {
+    aliases = AliasClasses.of(graph);
+    LoopNestTree loops = LoopNestTree.forGraph(graph, GraphUtils.topologicalOrder(graph));
+    List<CountedLoop> candidates = new ArrayList<>();
+    for (LoopNestTree loop : loops.innermostLoops()) {
+      CountedLoop.analyse(loop).filter(LoopFusion::isSimple).ifPresent(candidates::add);
+    }
+    for (CountedLoop first : candidates) {
+      for (CountedLoop second : candidates) {
+        if (first != second && tryFuse(first, second)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /** A header and a single body block, which jumps back to the header. */
+  private static boolean isSimple(CountedLoop counted) {
+    LoopNestTree loop = counted.iv.loop;
+    Node latch = loop.header.getPred(counted.iv.backEdge);
+    return loop.loopBlocks.size() == 2
+        && latch.getBlock().equals(counted.stayTarget)
+        && NodeUtils.isSingleExitNode(latch);
+  }
+
+  private boolean tryFuse(CountedLoop first, CountedLoop second) {
+    LoopNestTree loop1 = first.iv.loop;
+    LoopNestTree loop2 = second.iv.loop;
+
+    // The second loop has to be entered right after leaving the first one.
+    Block between = successor(first.exit);
+    Node entry2 = loop2.header.getPred(second.iv.entryEdge);
+    if (!between.equals(entry2.getBlock())
+        || between.getPredCount() != 1
+        || NodeUtils.getNodesInBlock(between).size() != 1) {
+      return false;
+    }
+
+    boolean sameIterations =
+        sameValue(first.iv.init, second.iv.init)
+            && first.iv.step.compare(second.iv.step).equals(Relation.Equal)
+            && first.bound.equals(second.bound)
+            && first.relation.equals(second.relation);
+    if (!sameIterations || !onlyTests(second)) {
+      return false;
+    }
+
+    List<Phi> memoryPhis1 = memoryPhis(loop1.header);
+    List<Phi> memoryPhis2 = memoryPhis(loop2.header);
+    if (memoryPhis1.size() > 1 || memoryPhis2.size() > 1) {
+      return false;
+    }
+    Optional<Phi> memory1 = seq(memoryPhis1).findFirst();
+    Optional<Phi> memory2 = seq(memoryPhis2).findFirst();
+    if (memory1.isPresent()
+        && memory2.isPresent()
+        && !memory2.get().getPred(second.iv.entryEdge).equals(memory1.get())) {
+      return false;
+    }
+
+    List<Node> body1 = loop1.nodes();
+    List<Node> body2 = loop2.nodes();
+    if (!onlyMemoryFlowsInto(body1, loop2, between, memory1)
+        || !independent(first, body1, second, body2)) {
+      return false;
+    }
+
+    fuse(first, second, memory1, memory2);
+    return true;
+  }
+
+  private static Block successor(Proj proj) {
+    return (Block) Iterables.getOnlyElement(BackEdges.getOuts(proj)).node;
+  }
+
+  private static boolean sameValue(Node a, Node b) {
+    if (a.equals(b)) {
+      return true;
+    }
+    return NodeUtils.asConst(a).isPresent()
+        && NodeUtils.asConst(b).isPresent()
+        && NodeUtils.asConst(a)
+            .get()
+            .getTarval()
+            .compare(NodeUtils.asConst(b).get().getTarval())
+            .equals(Relation.Equal);
+  }
+
+  /** The header of {@code counted} contains nothing but Phis and the loop test. */
+  private static boolean onlyTests(CountedLoop counted) {
+    return seq(NodeUtils.getNodesInBlock(counted.iv.loop.header))
+        .allMatch(
+            n ->
+                n instanceof Phi
+                    || n.equals(counted.cond)
+                    || n.equals(counted.cond.getSelector())
+                    || n.equals(counted.stay)
+                    || n.equals(counted.exit));
+  }
+
+  private static List<Phi> memoryPhis(Block header) {
+    return seq(NodeUtils.getNodesInBlock(header))
+        .ofType(Phi.class)
+        .filter(phi -> phi.getMode().equals(Mode.getM()))
+        .toList();
+  }
+
+  /**
+   * The second loop may see the memory state after the first loop, but no other values. After
+   * fusion, those would be the values of the current iteration instead of the last one.
+   */
+  private static boolean onlyMemoryFlowsInto(
+      List<Node> body1, LoopNestTree loop2, Block between, Optional<Phi> memory1) {
+    for (Node node : body1) {
+      for (BackEdges.Edge usage : BackEdges.getOuts(node)) {
+        if (usage.node instanceof End || usage.node instanceof Block) {
+          continue;
+        }
+        Block usageBlock = (Block) usage.node.getBlock();
+        boolean usedBySecond = loop2.loopBlocks.contains(usageBlock) || usageBlock.equals(between);
+        if (usedBySecond && !(memory1.isPresent() && node.equals(memory1.get()))) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Checks that no memory access of one loop may depend on one of the other loop, except for
+   * accesses of the same array element in the same iteration.
+   */
+  private boolean independent(
+      CountedLoop first, List<Node> body1, CountedLoop second, List<Node> body2) {
+    List<Node> accesses1 = seq(body1).filter(NodeUtils::dependsOnMemory).toList();
+    List<Node> accesses2 = seq(body2).filter(NodeUtils::dependsOnMemory).toList();
+    boolean onlyLoadsAndStores =
+        seq(accesses1).concat(accesses2).allMatch(n -> n instanceof Load || n instanceof Store);
+    if (!onlyLoadsAndStores) {
+      return false;
+    }
+    for (Node access1 : accesses1) {
+      for (Node access2 : accesses2) {
+        boolean writes = access1 instanceof Store || access2 instanceof Store;
+        if (writes
+            && aliases.mayAlias(access1, access2)
+            && !sameElement(first, access1, second, access2)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static boolean sameElement(
+      CountedLoop first, Node access1, CountedLoop second, Node access2) {
+    Node ptr1 = access1.getPred(1);
+    Node ptr2 = access2.getPred(1);
+    if (!(ptr1 instanceof Sel) || !(ptr2 instanceof Sel)) {
+      return false;
+    }
+    Sel sel1 = (Sel) ptr1;
+    Sel sel2 = (Sel) ptr2;
+    Block base = (Block) sel1.getPtr().getBlock();
+    return sel1.getPtr().equals(sel2.getPtr())
+        && !first.iv.loop.loopBlocks.contains(base)
+        && !second.iv.loop.loopBlocks.contains(base)
+        && sel1.getIndex().equals(first.iv.phi)
+        && sel2.getIndex().equals(second.iv.phi);
+  }
+
+  private void fuse(
+      CountedLoop first, CountedLoop second, Optional<Phi> memory1, Optional<Phi> memory2) {
+    Block header1 = first.iv.loop.header;
+    Block header2 = second.iv.loop.header;
+    Set<Block> blocks2 = second.iv.loop.loopBlocks;
+    int entry1 = first.iv.entryEdge;
+    int back1 = first.iv.backEdge;
+    int entry2 = second.iv.entryEdge;
+    int back2 = second.iv.backEdge;
+    Node latch1 = header1.getPred(back1);
+    Node latch2 = header2.getPred(back2);
+    Block between = successor(first.exit);
+    BackEdges.Edge exit2 = Iterables.getOnlyElement(BackEdges.getOuts(second.exit));
+
+    // The second body now sees the memory at the end of the first body, not after the first loop.
+    if (memory1.isPresent()) {
+      Phi phi1 = memory1.get();
+      Node endOfBody1 = phi1.getPred(back1);
+      redirectUsagesIn(blocks2, phi1, endOfBody1, memory2);
+      if (memory2.isPresent()) {
+        Phi phi2 = memory2.get();
+        Node endOfBody2 = phi2.getPred(back2).equals(phi2) ? endOfBody1 : phi2.getPred(back2);
+        redirectUsagesIn(blocks2, phi2, endOfBody1, Optional.empty());
+        // What's left are usages after the loop, which see the memory of the fused loop.
+        Graph.exchange(phi2, phi1);
+        phi1.setPred(back1, endOfBody2);
+      }
+    }
+
+    // All other Phis of the second header move to the first one. That includes the memory Phi, if
+    // the first loop doesn't have one.
+    boolean mergedMemory = memory1.isPresent() && memory2.isPresent();
+    List<Phi> phis2 =
+        seq(NodeUtils.getNodesInBlock(header2))
+            .ofType(Phi.class)
+            .filter(phi -> !mergedMemory || !phi.equals(memory2.get()))
+            .toList();
+    Map<Phi, Node> moved = new HashMap<>();
+    for (Phi phi : phis2) {
+      Node[] preds = new Node[header1.getPredCount()];
+      for (int i = 0; i < preds.length; ++i) {
+        if (i == entry1) {
+          preds[i] = phi.getPred(entry2);
+        } else if (i == back1) {
+          preds[i] = phi.getPred(back2);
+        } else {
+          preds[i] = graph.newBad(phi.getMode());
+        }
+      }
+      moved.put(phi, graph.newPhi(header1, preds, phi.getMode()));
+    }
+    moved.forEach(Graph::exchange);
+
+    // first header -> first body -> second body -> first header, leaving to the second exit.
+    second.stayTarget.setPred(0, latch1);
+    header1.setPred(back1, latch2);
+    exit2.node.setPred(exit2.pos, first.exit);
+    between.setPred(0, graph.newBad(Mode.getX()));
+    for (int i = 0; i < header2.getPredCount(); ++i) {
+      header2.setPred(i, graph.newBad(Mode.getX()));
+    }
+  }
+
+  /** Redirects usages of {@code value} in {@code blocks} to {@code replacement}. */
+  private static void redirectUsagesIn(
+      Set<Block> blocks, Node value, Node replacement, Optional<Phi> except) {
+    List<BackEdges.Edge> usages =
+        seq(BackEdges.getOuts(value))
+            .filter(be -> !(be.node instanceof End) && !(be.node instanceof Block))
+            .filter(be -> blocks.contains((Block) be.node.getBlock()))
+            .filter(be -> !except.isPresent() || !be.node.equals(except.get()))
+            .toList();
+    for (BackEdges.Edge usage : usages) {
+      usage.node.setPred(usage.pos, replacement);
+    }
+  }
+}
@@ -4,7 +4,6 @@ import static firm.bindings.binding_irnode.ir_opcode.iro_Bad;
 import static minijava.ir.utils.NodeUtils.incomingBackEdges;
 import static org.jooq.lambda.Seq.seq;
 
-import com.google.common.collect.Sets;
 import firm.BackEdges;
 import firm.BackEdges.Edge;
 import firm.Graph;
@@ -60,31 +59,12 @@ public class LoopInvariantCodeMotion extends BaseOptimizer {
         graph,
         () -> {
           ArrayList<Node> order = GraphUtils.topologicalOrder(graph);
-          loopNestTree = buildLoopNestTree(order);
+          loopNestTree = LoopNestTree.forGraph(graph, order);
           order.forEach(this::evaluateMovability);
           return moveCode();
         });
   }
 
-  private LoopNestTree buildLoopNestTree(ArrayList<Node> allNodes) {
-    Map<Block, Set<Block>> loopBlocks = new HashMap<>();
-    Set<Block> allBlocks = new HashSet<>();
-    for (Block header : seq(allNodes).ofType(Block.class)) {
-      allBlocks.add(header);
-      if (!isLoopHeader(header)) {
-        continue;
-      }
-
-      Set<Block> body = blocksOfLoop(header);
-      loopBlocks.put(header, body);
-    }
-
-    // We also add a pseudo node for nodes not in a loop, which will be the root.
-    loopBlocks.put(graph.getStartBlock(), allBlocks);
-
-    return LoopNestTree.fromLoopBlocks(loopBlocks);
-  }
-
   private void evaluateMovability(Node node) {
     if (NodeUtils.isTiedToBlock(node)) {
       return;
@@ -172,27 +152,6 @@ public class LoopInvariantCodeMotion extends BaseOptimizer {
     return moveInfos.computeIfAbsent(loopHeader, MoveInfo::new);
   }
 
-  private static Set<Block> blocksOfLoop(Block header) {
-    Set<Block> reachable = new HashSet<>();
-    Set<Block> toVisit = Sets.newHashSet(header);
-    while (!toVisit.isEmpty()) {
-      Block cur = toVisit.iterator().next();
-      toVisit.remove(cur);
-      boolean notPartOfLoop = !Dominance.dominates(header, cur);
-      if (reachable.contains(cur) || notPartOfLoop) {
-        continue;
-      }
-      reachable.add(cur);
-      Seq<Block> cfgPreds =
-          seq(cur.getPreds())
-              .filter(n -> n.getMode().equals(Mode.getX()))
-              .map(Node::getBlock)
-              .cast(Block.class);
-      cfgPreds.forEach(toVisit::add);
-    }
-    return reachable;
-  }
-
   private Block enclosingLoopHeader(Block block) {
     for (Block dominator : Dominance.dominatorPath(block)) {
       if (isLoopHeader(dominator)) {
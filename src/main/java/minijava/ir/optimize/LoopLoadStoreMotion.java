@@ -0,0 +1,352 @@
+package minijava.ir.optimize;
+
+import static org.jooq.lambda.Seq.seq;
+
+import firm.BackEdges;
+import firm.Graph;
+import firm.Mode;
+import firm.nodes.Bad;
+import firm.nodes.Block;
+import firm.nodes.End;
+import firm.nodes.Load;
+import firm.nodes.Member;
+import firm.nodes.Node;
+import firm.nodes.Phi;
+import firm.nodes.Proj;
+import firm.nodes.Sel;
+import firm.nodes.Store;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import minijava.ir.Dominance;
+import minijava.ir.optimize.licm.LoopNestTree;
+import minijava.ir.utils.FirmUtils;
+import minijava.ir.utils.GraphUtils;
+import minijava.ir.utils.NodeUtils;
+
+/**
+ * Moves memory accesses to loop invariant addresses out of innermost loops, which the pure {@link
+ * LoopInvariantCodeMotion} and {@link GlobalCodeMotion} can't do because of memory dependencies:
+ *
+ * <ul>
+ *   <li>A Load which no side effect in the loop may alias reads the same value in every iteration,
+ *       so it's hoisted in front of the loop. That's the case for {@code while (i < this.size)}.
+ *   <li>A field which is loaded and then stored again in every iteration, e.g. {@code this.sum =
+ *       this.sum + x}, and is accessed by nothing else in the loop is promoted to a register. It's
+ *       loaded once before the loop, carried by a Phi in the header and stored once behind the
+ *       loop.
+ * </ul>
+ *
+ * <p>The {@link AliasAnalyzer} doesn't keep its results around, so we ask the flow-insensitive
+ * {@link AliasClasses} whether other side effects in the loop may touch the accessed location.
+ *
+ * <p>Both transformations access memory before the loop which the original program might not have
+ * accessed, if the loop is left before the access happens. We only do so if the access happens
+ * before every exit of the loop, or if it's a field of {@code this}, which is never null in a
+ * well-defined program.
+ */
+public class LoopLoadStoreMotion extends BaseOptimizer {
+
+  /** Invalidated after every transformation, since it is keyed by the nodes of the graph. */
+  private AliasClasses aliases;
+
+  @Override
+  public boolean optimize(Graph graph) {
+    this.graph = graph;
+    this.hasChanged = false;
+    this.aliases = null;
+    FirmUtils.withBackEdges(
+        graph,
+        () -> {
+          LoopNestTree loops = LoopNestTree.forGraph(graph, GraphUtils.topologicalOrder(graph));
+          for (LoopNestTree loop : loops.innermostLoops()) {
+            if (transform(loop)) {
+              hasChanged = true;
+              aliases = null;
+              Dominance.invalidateDominace();
+            }
+          }
+        });
+    return hasChanged;
+  }
+
+  private AliasClasses aliases() {
+    if (aliases == null) {
+      aliases = AliasClasses.of(graph);
+    }
+    return aliases;
+  }
+
+  /** Moves at most one access out of {@code loop}, the rest is done in the next iteration. */
+  private boolean transform(LoopNestTree loop) {
+    Optional<Integer> optEntryEdge = loop.uniqueEntryEdge();
+    if (!optEntryEdge.isPresent()) {
+      return false;
+    }
+    int entryEdge = optEntryEdge.get();
+    Node entry = loop.header.getPred(entryEdge);
+    List<Phi> memoryPhis =
+        seq(NodeUtils.getNodesInBlock(loop.header))
+            .ofType(Phi.class)
+            .filter(phi -> phi.getMode().equals(Mode.getM()))
+            .toList();
+    if (!NodeUtils.isSingleExitNode(entry) || memoryPhis.size() > 1) {
+      return false;
+    }
+    Optional<Phi> memoryPhi = seq(memoryPhis).findFirst();
+
+    List<Node> body = loop.nodes();
+    List<Load> loads = seq(body).ofType(Load.class).toList();
+    List<Node> sideEffects = seq(body).filter(LoopLoadStoreMotion::isSideEffect).toList();
+    for (Load load : loads) {
+      if (!isInvariantAddress(load.getPtr(), loop) || !hasOnlyMemAndResultProjs(load)) {
+        continue;
+      }
+      List<Node> conflicts = seq(sideEffects).filter(se -> aliases().mayAlias(load, se)).toList();
+      if (conflicts.isEmpty()) {
+        if (hoist(loop, entryEdge, memoryPhi, load)) {
+          return true;
+        }
+      } else if (conflicts.size() == 1 && conflicts.get(0) instanceof Store) {
+        Store store = (Store) conflicts.get(0);
+        boolean isOnlyLoad =
+            seq(loads).filter(l -> !l.equals(load)).noneMatch(l -> aliases().mayAlias(load, l));
+        if (isOnlyLoad
+            && memoryPhi.isPresent()
+            && promote(loop, entryEdge, memoryPhi.get(), load, store)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /** Memory accesses other than Loads, e.g. Stores and Calls. */
+  private static boolean isSideEffect(Node node) {
+    return !(node instanceof Load) && NodeUtils.dependsOnMemory(node);
+  }
+
+  /** Whether {@code ptr} is defined outside of {@code loop} or can be moved there. */
+  private static boolean isInvariantAddress(Node ptr, LoopNestTree loop) {
+    if (!loop.loopBlocks.contains((Block) ptr.getBlock())) {
+      return true;
+    }
+    if (!(ptr instanceof Member) && !(ptr instanceof Sel)) {
+      return false;
+    }
+    return seq(ptr.getPreds()).allMatch(pred -> isInvariantAddress(pred, loop));
+  }
+
+  private static void moveAddress(Node ptr, Block block, LoopNestTree loop) {
+    if (!loop.loopBlocks.contains((Block) ptr.getBlock())) {
+      return;
+    }
+    for (Node pred : ptr.getPreds()) {
+      moveAddress(pred, block, loop);
+    }
+    ptr.setBlock(block);
+  }
+
+  private static boolean hasOnlyMemAndResultProjs(Load load) {
+    return seq(BackEdges.getOuts(load))
+        .map(be -> be.node)
+        .allMatch(
+            n ->
+                n instanceof Proj
+                    && (((Proj) n).getNum() == Load.pnM || ((Proj) n).getNum() == Load.pnRes));
+  }
+
+  private static Optional<Proj> resultOf(Load load) {
+    return seq(BackEdges.getOuts(load))
+        .map(be -> be.node)
+        .ofType(Proj.class)
+        .filter(p -> p.getNum() == Load.pnRes)
+        .findFirst();
+  }
+
+  /** Whether we may access {@code ptr} before {@code loop} when it's accessed in {@code block}. */
+  private boolean mayAccessBeforeLoop(LoopNestTree loop, Block block, Node ptr) {
+    return isFieldOfThis(ptr) || executesBeforeEveryExit(loop, block);
+  }
+
+  private static boolean executesBeforeEveryExit(LoopNestTree loop, Block block) {
+    List<Block> exiting =
+        seq(loop.loopBlocks)
+            .filter(
+                b ->
+                    NodeUtils.getControlFlowSuccessors(b)
+                        .anyMatch(be -> !loop.loopBlocks.contains((Block) be.node)))
+            .toList();
+    return !exiting.isEmpty() && seq(exiting).allMatch(b -> Dominance.dominates(block, b));
+  }
+
+  private boolean isFieldOfThis(Node ptr) {
+    if (!(ptr instanceof Member) || ProgramMetrics.isMain(graph)) {
+      return false;
+    }
+    Node base = ((Member) ptr).getPtr();
+    return base instanceof Proj
+        && base.getPred(0).equals(graph.getArgs())
+        && ((Proj) base).getNum() == 0;
+  }
+
+  /** The memory state with which {@code loop} is entered. */
+  private static Optional<Node> entryMemory(
+      LoopNestTree loop, int entryEdge, Optional<Phi> memoryPhi, Load load) {
+    if (memoryPhi.isPresent()) {
+      return Optional.of(memoryPhi.get().getPred(entryEdge));
+    }
+    // Without a Phi, nothing in the loop changes memory.
+    Node mem = load.getMem();
+    return loop.loopBlocks.contains((Block) mem.getBlock()) ? Optional.empty() : Optional.of(mem);
+  }
+
+  /** Creates a copy of {@code load} in the block in front of the loop. */
+  private Load loadBeforeLoop(LoopNestTree loop, int entryEdge, Node entryMemory, Load load) {
+    Block preheader = (Block) loop.header.getPred(entryEdge).getBlock();
+    moveAddress(load.getPtr(), preheader, loop);
+    Load hoisted = (Load) graph.copyNode(load);
+    hoisted.setBlock(preheader);
+    hoisted.setMem(entryMemory);
+    return hoisted;
+  }
+
+  /** Removes {@code load} from the memory chain and replaces its result by {@code value}. */
+  private static void replaceLoad(Load load, Node value) {
+    List<Node> projs = seq(BackEdges.getOuts(load)).map(be -> be.node).toList();
+    for (Node proj : projs) {
+      if (proj.getMode().equals(Mode.getM())) {
+        Graph.exchange(proj, load.getMem());
+      } else {
+        Graph.exchange(proj, value);
+      }
+    }
+  }
+
+  private boolean hoist(LoopNestTree loop, int entryEdge, Optional<Phi> memoryPhi, Load load) {
+    Optional<Node> entryMemory = entryMemory(loop, entryEdge, memoryPhi, load);
+    if (!entryMemory.isPresent()
+        || !mayAccessBeforeLoop(loop, (Block) load.getBlock(), load.getPtr())) {
+      return false;
+    }
+    Load hoisted = loadBeforeLoop(loop, entryEdge, entryMemory.get(), load);
+    memoryPhi.ifPresent(
+        phi -> phi.setPred(entryEdge, graph.newProj(hoisted, Mode.getM(), Load.pnM)));
+    replaceLoad(load, graph.newProj(hoisted, load.getLoadMode(), Load.pnRes));
+    return true;
+  }
+
+  /**
+   * Promotes the location accessed by {@code load} and {@code store} to a register. The Load has to
+   * feed the stored value in the same block, which has to execute in every iteration.
+   */
+  private boolean promote(LoopNestTree loop, int entryEdge, Phi memoryPhi, Load load, Store store) {
+    Block header = loop.header;
+    Block block = (Block) load.getBlock();
+    Node value = store.getValue();
+    Optional<Proj> result = resultOf(load);
+    boolean isAccumulator =
+        store.getPtr().equals(load.getPtr())
+            && store.getBlock().equals(block)
+            && value.getMode().equals(load.getLoadMode())
+            && result.isPresent()
+            && dependsOn(value, result.get(), block, new HashSet<>());
+    boolean executesEveryIteration =
+        NodeUtils.incomingBackEdges(header)
+            .allMatch(i -> Dominance.dominates(block, (Block) header.getPred(i).getBlock()));
+    Optional<BackEdges.Edge> exit = LoopUnswitching.uniqueExit(loop);
+    boolean storeHasOnlyMemProjs =
+        seq(BackEdges.getOuts(store)).allMatch(be -> be.node.getMode().equals(Mode.getM()));
+    if (!isAccumulator || !executesEveryIteration || !exit.isPresent() || !storeHasOnlyMemProjs) {
+      return false;
+    }
+    Block exitTarget = (Block) exit.get().node;
+    Node leave = exitTarget.getPred(exit.get().pos);
+    Block exiting = (Block) leave.getBlock();
+    // When we leave the loop after the Store, the final value is the stored one. When we leave
+    // from the header, the last iteration stored the value the header Phi sees.
+    boolean leavesAfterStore = Dominance.dominates(block, exiting);
+    if (!leavesAfterStore && !exiting.equals(header)) {
+      return false;
+    }
+    if (!mayAccessBeforeLoop(loop, block, load.getPtr())) {
+      return false;
+    }
+
+    Mode mode = load.getLoadMode();
+    Node entryMemory = memoryPhi.getPred(entryEdge);
+    Load initial = loadBeforeLoop(loop, entryEdge, entryMemory, load);
+    Node initialMemory = graph.newProj(initial, Mode.getM(), Load.pnM);
+    memoryPhi.setPred(entryEdge, initialMemory);
+    Node[] preds = new Node[header.getPredCount()];
+    for (int i = 0; i < preds.length; ++i) {
+      if (i == entryEdge) {
+        preds[i] = graph.newProj(initial, mode, Load.pnRes);
+      } else if (header.getPred(i) instanceof Bad) {
+        preds[i] = graph.newBad(mode);
+      } else {
+        preds[i] = value;
+      }
+    }
+    Node current = graph.newPhi(header, preds, mode);
+    Node finalValue = leavesAfterStore ? value : current;
+
+    replaceLoad(load, current);
+    List<Node> storeProjs = seq(BackEdges.getOuts(store)).map(be -> be.node).toList();
+    for (Node proj : storeProjs) {
+      Graph.exchange(proj, store.getMem());
+    }
+
+    // Write the final value back on a new edge behind the loop.
+    Block landing = (Block) graph.newBlock(new Node[] {leave});
+    exitTarget.setPred(exit.get().pos, graph.newJmp(landing));
+    Store writeBack = (Store) graph.copyNode(store);
+    writeBack.setBlock(landing);
+    writeBack.setMem(initialMemory);
+    writeBack.setValue(finalValue);
+    Node writeBackMemory = graph.newProj(writeBack, Mode.getM(), Store.pnM);
+
+    // Everything after the loop has to see the write back, which we achieve by syncing it with
+    // every memory state leaving the loop.
+    List<BackEdges.Edge> leavingMemory = new ArrayList<>();
+    for (Block loopBlock : loop.loopBlocks) {
+      for (Node node : NodeUtils.getNodesInBlock(loopBlock)) {
+        if (!node.getMode().equals(Mode.getM())) {
+          continue;
+        }
+        for (BackEdges.Edge usage : BackEdges.getOuts(node)) {
+          if (!(usage.node instanceof End)
+              && !loop.loopBlocks.contains((Block) usage.node.getBlock())) {
+            leavingMemory.add(usage);
+          }
+        }
+      }
+    }
+    if (leavingMemory.isEmpty()) {
+      graph.keepAlive(writeBackMemory);
+    }
+    Map<Node, Node> synced = new HashMap<>();
+    for (BackEdges.Edge usage : leavingMemory) {
+      Node mem = usage.node.getPred(usage.pos);
+      Node sync =
+          synced.computeIfAbsent(mem, m -> graph.newSync(landing, new Node[] {m, writeBackMemory}));
+      usage.node.setPred(usage.pos, sync);
+    }
+    return true;
+  }
+
+  /** Whether {@code node} depends on {@code target} through data edges within {@code block}. */
+  private static boolean dependsOn(Node node, Node target, Block block, Set<Node> visited) {
+    if (node.equals(target)) {
+      return true;
+    }
+    if (node instanceof Phi || !block.equals(node.getBlock()) || !visited.add(node)) {
+      return false;
+    }
+    return seq(node.getPreds()).anyMatch(pred -> dependsOn(pred, target, block, visited));
+  }
+}
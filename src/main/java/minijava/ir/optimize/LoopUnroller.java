@@ -0,0 +1,200 @@
+package minijava.ir.optimize;
+
+import static org.jooq.lambda.Seq.seq;
+
+import firm.Graph;
+import firm.Mode;
+import firm.TargetValue;
+import firm.nodes.Block;
+import firm.nodes.Cond;
+import firm.nodes.Node;
+import firm.nodes.Phi;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import minijava.ir.Dominance;
+import minijava.ir.optimize.licm.CountedLoop;
+import minijava.ir.optimize.licm.InductionVariable;
+import minijava.ir.optimize.licm.LoopNestTree;
+import minijava.ir.utils.FirmUtils;
+import minijava.ir.utils.GraphUtils;
+import minijava.ir.utils.NodeUtils;
+import minijava.ir.utils.Profile;
+import minijava.ir.utils.ProfileKeys;
+
+/**
+ * Unrolls innermost counted loops, e.g. loops like {@code while (i < n) { ...; i = i + 1; }} with a
+ * basic induction variable {@code i} and a loop invariant bound {@code n}.
+ *
+ * <p>We insert a copy of the loop in front of the original one, whose body is repeated {@code
+ * factor} times and which only checks if there are at least {@code factor} iterations left. The
+ * original loop stays in place as the remainder loop, which runs the last few iterations. The test
+ * of the unrolled loop is done in 64 bit, so that adding {@code (factor - 1) * step} can't
+ * overflow.
+ *
+ * <p>Graphs and loops may only grow to the limits below, as measured by {@link ProgramMetrics}. If
+ * there is a {@link Profile}, we don't unroll loops in methods which were never called.
+ */
+public class LoopUnroller extends BaseOptimizer {
+  /** The maximum number of nodes we add to a graph for unrolling a single loop. */
+  private static final int MAX_LOOP_GROWTH = 400;
+  /** We don't unroll loops in graphs which would grow bigger than this. */
+  private static final int MAX_GRAPH_SIZE = 2000;
+
+  private final ProgramMetrics metrics;
+  private final int factor;
+  private final Profile profile;
+
+  public LoopUnroller(ProgramMetrics metrics, int factor) {
+    this(metrics, factor, Profile.EMPTY);
+  }
+
+  public LoopUnroller(ProgramMetrics metrics, int factor, Profile profile) {
+    this.metrics = metrics;
+    this.factor = factor;
+    this.profile = profile;
+  }
+
+  @Override
+  public boolean optimize(Graph graph) {
+    if (factor < 2 || profile.isCold(graph)) {
+      return false;
+    }
+    this.graph = graph;
+    this.hasChanged = false;
+    Dominance.invalidateDominace();
+    FirmUtils.withBackEdges(
+        graph,
+        () -> {
+          LoopNestTree loops = LoopNestTree.forGraph(graph, GraphUtils.topologicalOrder(graph));
+          List<LoopNestTree> innermost = new ArrayList<>();
+          loops.visitPostOrder(
+              loop -> {
+                if (!loop.isRoot() && loop.children.isEmpty()) {
+                  innermost.add(loop);
+                }
+              });
+
+          int size = metrics.getGraphInfo(graph).size;
+          for (LoopNestTree loop : innermost) {
+            Optional<CountedLoop> counted = CountedLoop.analyse(loop);
+            if (!counted.isPresent()) {
+              continue;
+            }
+            List<Node> body = nodesToCopy(counted.get());
+            int growth = body.size() * factor;
+            if (growth > MAX_LOOP_GROWTH || size + growth > MAX_GRAPH_SIZE) {
+              continue;
+            }
+            unroll(counted.get(), body);
+            size += growth;
+            hasChanged = true;
+          }
+        });
+
+    if (hasChanged) {
+      Dominance.invalidateDominace();
+    }
+    return hasChanged;
+  }
+
+  /** All nodes of the loop, except for the loop test, which is replaced in the copies. */
+  private static List<Node> nodesToCopy(CountedLoop counted) {
+    return seq(counted.iv.loop.loopBlocks)
+        .flatMap(b -> seq(NodeUtils.getNodesInBlock(b)))
+        .filter(n -> !n.equals(counted.cond) && !n.equals(counted.stay))
+        .filter(n -> !n.equals(counted.exit))
+        .toList();
+  }
+
+  private void unroll(CountedLoop counted, List<Node> body) {
+    InductionVariable iv = counted.iv;
+    LoopNestTree loop = iv.loop;
+    Block header = loop.header;
+    Node latchJmp = header.getPred(iv.backEdge);
+    List<Phi> headerPhis =
+        seq(body).ofType(Phi.class).filter(p -> p.getBlock().equals(header)).toList();
+
+    // The first copy gets its own header with the new test, the following copies are glued to the
+    // latch of their predecessor. Phis of their headers are just the values of the previous copy.
+    List<Map<Node, Node>> copies = new ArrayList<>();
+    for (int k = 0; k < factor; ++k) {
+      Map<Node, Node> copy = new HashMap<>();
+      Map<Node, Node> previous = k == 0 ? null : copies.get(k - 1);
+      Set<Node> substituted = new HashSet<>();
+      for (Block block : loop.loopBlocks) {
+        if (k > 0 && block.equals(header)) {
+          copy.put(block, graph.newBlock(new Node[] {previous.get(latchJmp)}));
+          substituted.add(block);
+        } else {
+          copy.put(block, graph.copyNode(block));
+        }
+      }
+      for (Node node : body) {
+        if (k > 0 && headerPhis.contains(node)) {
+          Node backValue = node.getPred(iv.backEdge);
+          copy.put(node, previous.getOrDefault(backValue, backValue));
+          substituted.add(node);
+        } else {
+          copy.put(node, graph.copyNode(node));
+        }
+      }
+
+      for (Node original : seq(loop.loopBlocks).cast(Node.class).concat(body)) {
+        if (substituted.contains(original)) {
+          continue;
+        }
+        Node duplicate = copy.get(original);
+        ProfileKeys.inherit(duplicate, original);
+        if (!(original instanceof Block)) {
+          duplicate.setBlock(copy.get(original.getBlock()));
+        }
+        for (int i = 0; i < original.getPredCount(); ++i) {
+          Node pred = original.getPred(i);
+          duplicate.setPred(i, copy.getOrDefault(pred, pred));
+        }
+      }
+
+      if (k > 0) {
+        // There are at least factor iterations left, so we don't need to test again.
+        copy.get(counted.stayTarget).setPred(0, graph.newJmp(copy.get(header)));
+      }
+      copies.add(copy);
+    }
+
+    // Close the unrolled loop
+    Map<Node, Node> first = copies.get(0);
+    Map<Node, Node> last = copies.get(factor - 1);
+    Block unrolledHeader = (Block) first.get(header);
+    unrolledHeader.setPred(iv.backEdge, last.get(latchJmp));
+    for (Phi phi : headerPhis) {
+      Node backValue = phi.getPred(iv.backEdge);
+      first.get(phi).setPred(iv.backEdge, last.getOrDefault(backValue, backValue));
+    }
+
+    // Test if i + (factor - 1) * step is still in bounds, in 64 bit.
+    Mode mode = Mode.getLs();
+    TargetValue lookahead = iv.step.convertTo(mode).mul(new TargetValue(factor - 1, mode));
+    Node lastIteration =
+        graph.newAdd(
+            unrolledHeader,
+            graph.newConv(unrolledHeader, first.get(iv.phi), mode),
+            graph.newConst(lookahead));
+    Node bound = graph.newConv(unrolledHeader, counted.bound, mode);
+    Node cmp = graph.newCmp(unrolledHeader, lastIteration, bound, counted.relation);
+    Node cond = graph.newCond(unrolledHeader, cmp);
+    first.get(counted.stayTarget).setPred(0, graph.newProj(cond, Mode.getX(), Cond.pnTrue));
+
+    // Leaving the unrolled loop enters the remainder loop, which is the original one.
+    Node leave = graph.newProj(cond, Mode.getX(), Cond.pnFalse);
+    Block landingBlock = (Block) graph.newBlock(new Node[] {leave});
+    header.setPred(iv.entryEdge, graph.newJmp(landingBlock));
+    for (Phi phi : headerPhis) {
+      phi.setPred(iv.entryEdge, first.get(phi));
+    }
+  }
+}
@@ -0,0 +1,246 @@
+package minijava.ir.optimize;
+
+import static org.jooq.lambda.Seq.seq;
+
+import firm.BackEdges;
+import firm.Graph;
+import firm.Mode;
+import firm.TargetValue;
+import firm.nodes.Block;
+import firm.nodes.Cmp;
+import firm.nodes.Cond;
+import firm.nodes.End;
+import firm.nodes.Node;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import minijava.ir.Dominance;
+import minijava.ir.optimize.licm.LoopNestTree;
+import minijava.ir.utils.FirmUtils;
+import minijava.ir.utils.GraphUtils;
+import minijava.ir.utils.NodeUtils;
+import minijava.ir.utils.Profile;
+import minijava.ir.utils.ProfileKeys;
+
+/**
+ * Moves loop invariant conditions out of innermost loops, by duplicating the loop for both outcomes
+ * of the condition:
+ *
+ * <pre>
+ *   while (c) { if (flag) A else B }  ~>  if (flag) while (c) { A } else while (c) { B }
+ * </pre>
+ *
+ * <p>The condition is tested once in a new block before the loop. In the original loop it is
+ * replaced by true and in the copy by false, so that the {@link ConstantControlFlowOptimizer}
+ * removes the dead branches afterwards.
+ *
+ * <p>We only unswitch loops with a single entry and a single exit, so that values computed in the
+ * loop just have to be merged by a Phi behind the exit. Just as for the {@link LoopUnroller}, the
+ * code growth is limited as measured by {@link ProgramMetrics}, and loops in methods which were
+ * never called according to the {@link Profile} are left alone.
+ */
+public class LoopUnswitching extends BaseOptimizer {
+  /** We don't duplicate loops with more nodes than this. */
+  private static final int MAX_LOOP_SIZE = 200;
+  /** We don't unswitch loops in graphs which would grow bigger than this. */
+  private static final int MAX_GRAPH_SIZE = 2000;
+
+  private final ProgramMetrics metrics;
+  private final Profile profile;
+
+  public LoopUnswitching(ProgramMetrics metrics) {
+    this(metrics, Profile.EMPTY);
+  }
+
+  public LoopUnswitching(ProgramMetrics metrics, Profile profile) {
+    this.metrics = metrics;
+    this.profile = profile;
+  }
+
+  @Override
+  public boolean optimize(Graph graph) {
+    if (profile.isCold(graph)) {
+      return false;
+    }
+    this.graph = graph;
+    this.hasChanged = false;
+    Dominance.invalidateDominace();
+    FirmUtils.withBackEdges(
+        graph,
+        () -> {
+          LoopNestTree loops = LoopNestTree.forGraph(graph, GraphUtils.topologicalOrder(graph));
+
+          int size = metrics.getGraphInfo(graph).size;
+          for (LoopNestTree loop : loops.innermostLoops()) {
+            List<Node> body = loop.nodes();
+            if (body.size() > MAX_LOOP_SIZE || size + body.size() > MAX_GRAPH_SIZE) {
+              continue;
+            }
+            Optional<Integer> entryEdge = loop.uniqueEntryEdge();
+            Optional<BackEdges.Edge> exit = uniqueExit(loop);
+            Optional<Cond> invariant = invariantCondition(loop);
+            if (!entryEdge.isPresent() || !exit.isPresent() || !invariant.isPresent()) {
+              continue;
+            }
+            Optional<List<BackEdges.Edge>> usages = usagesAfterLoop(loop, body);
+            if (!usages.isPresent()) {
+              continue;
+            }
+            unswitch(loop, body, entryEdge.get(), exit.get(), invariant.get(), usages.get());
+            size += body.size();
+            hasChanged = true;
+          }
+        });
+
+    if (hasChanged) {
+      Dominance.invalidateDominace();
+    }
+    return hasChanged;
+  }
+
+  /**
+   * The only control flow edge leaving the loop, if there is just one and its target block has no
+   * other predecessors.
+   */
+  static Optional<BackEdges.Edge> uniqueExit(LoopNestTree loop) {
+    BackEdges.Edge exit = null;
+    for (Block block : loop.loopBlocks) {
+      for (BackEdges.Edge successor : NodeUtils.getControlFlowSuccessors(block)) {
+        if (loop.loopBlocks.contains((Block) successor.node)) {
+          continue;
+        }
+        if (exit != null) {
+          return Optional.empty();
+        }
+        exit = successor;
+      }
+    }
+    if (exit == null || exit.node.getPredCount() != 1) {
+      return Optional.empty();
+    }
+    return Optional.of(exit);
+  }
+
+  /** A Cond which compares loop invariant values and doesn't leave the loop. */
+  private static Optional<Cond> invariantCondition(LoopNestTree loop) {
+    Set<Block> blocks = loop.loopBlocks;
+    for (Block block : blocks) {
+      for (Cond cond : seq(NodeUtils.getNodesInBlock(block)).ofType(Cond.class)) {
+        if (!(cond.getSelector() instanceof Cmp)) {
+          continue;
+        }
+        Cmp cmp = (Cmp) cond.getSelector();
+        boolean isInvariant =
+            !blocks.contains((Block) cmp.getLeft().getBlock())
+                && !blocks.contains((Block) cmp.getRight().getBlock());
+        boolean staysInLoop =
+            seq(BackEdges.getOuts(cond))
+                .flatMap(proj -> seq(BackEdges.getOuts(proj.node)))
+                .allMatch(be -> blocks.contains((Block) be.node));
+        if (isInvariant && staysInLoop) {
+          return Optional.of(cond);
+        }
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Usages of loop values after the loop, which have to be merged with the values of the copy. Keep
+   * alive edges and the control flow edge leaving the loop don't count. Values of mode b can't be
+   * merged by a Phi.
+   */
+  private static Optional<List<BackEdges.Edge>> usagesAfterLoop(
+      LoopNestTree loop, List<Node> body) {
+    List<BackEdges.Edge> usages = new ArrayList<>();
+    for (Node node : body) {
+      for (BackEdges.Edge usage : BackEdges.getOuts(node)) {
+        if (usage.node instanceof End
+            || usage.node instanceof Block
+            || loop.loopBlocks.contains((Block) usage.node.getBlock())) {
+          continue;
+        }
+        if (node.getMode().equals(Mode.getb())) {
+          return Optional.empty();
+        }
+        usages.add(usage);
+      }
+    }
+    return Optional.of(usages);
+  }
+
+  private void unswitch(
+      LoopNestTree loop,
+      List<Node> body,
+      int entryEdge,
+      BackEdges.Edge exit,
+      Cond invariant,
+      List<BackEdges.Edge> usagesAfterLoop) {
+    Block header = loop.header;
+    Set<Block> blocks = loop.loopBlocks;
+    List<Node> kept =
+        seq(body)
+            .filter(n -> seq(BackEdges.getOuts(n)).anyMatch(be -> be.node instanceof End))
+            .toList();
+
+    Map<Node, Node> copy = new HashMap<>();
+    for (Block block : blocks) {
+      copy.put(block, graph.copyNode(block));
+    }
+    for (Node node : body) {
+      copy.put(node, graph.copyNode(node));
+    }
+    for (Node original : seq(blocks).cast(Node.class).concat(body)) {
+      Node duplicate = copy.get(original);
+      ProfileKeys.inherit(duplicate, original);
+      if (!(original instanceof Block)) {
+        duplicate.setBlock(copy.get(original.getBlock()));
+      }
+      for (int i = 0; i < original.getPredCount(); ++i) {
+        Node pred = original.getPred(i);
+        duplicate.setPred(i, copy.getOrDefault(pred, pred));
+      }
+    }
+    for (Node node : kept) {
+      graph.keepAlive(copy.get(node));
+    }
+
+    // Test the condition before entering either loop. The operands are defined before the loop,
+    // so they dominate the entry edge.
+    Cmp cmp = (Cmp) invariant.getSelector();
+    Block dispatch = (Block) graph.newBlock(new Node[] {header.getPred(entryEdge)});
+    Node cond =
+        graph.newCond(
+            dispatch, graph.newCmp(dispatch, cmp.getLeft(), cmp.getRight(), cmp.getRelation()));
+    // The headers have more than one predecessor, so we need extra blocks to avoid critical edges.
+    Block enterOriginal =
+        (Block) graph.newBlock(new Node[] {graph.newProj(cond, Mode.getX(), Cond.pnTrue)});
+    Block enterCopy =
+        (Block) graph.newBlock(new Node[] {graph.newProj(cond, Mode.getX(), Cond.pnFalse)});
+    header.setPred(entryEdge, graph.newJmp(enterOriginal));
+    copy.get(header).setPred(entryEdge, graph.newJmp(enterCopy));
+
+    invariant.setSelector(graph.newConst(TargetValue.getBTrue()));
+    ((Cond) copy.get(invariant)).setSelector(graph.newConst(TargetValue.getBFalse()));
+
+    // Both loops leave to a new landing block, where their values are merged.
+    Block exitTarget = (Block) exit.node;
+    Node leaveOriginal = exitTarget.getPred(exit.pos);
+    Block landing = (Block) graph.newBlock(new Node[] {leaveOriginal, copy.get(leaveOriginal)});
+    exitTarget.setPred(exit.pos, graph.newJmp(landing));
+    // The loops are usually left through a Cond in their headers, so these edges are critical.
+    NodeUtils.splitCriticalEdge(landing, 0);
+    NodeUtils.splitCriticalEdge(landing, 1);
+    Map<Node, Node> merged = new HashMap<>();
+    for (BackEdges.Edge usage : usagesAfterLoop) {
+      Node value = usage.node.getPred(usage.pos);
+      Node phi =
+          merged.computeIfAbsent(
+              value, v -> graph.newPhi(landing, new Node[] {v, copy.get(v)}, v.getMode()));
+      usage.node.setPred(usage.pos, phi);
+    }
+  }
+}
@@ -0,0 +1,241 @@
+package minijava.ir.optimize;
+
+import static org.jooq.lambda.Seq.seq;
+
+import firm.Graph;
+import firm.Relation;
+import firm.TargetValue;
+import firm.nodes.Address;
+import firm.nodes.Block;
+import firm.nodes.Call;
+import firm.nodes.Const;
+import firm.nodes.Div;
+import firm.nodes.Load;
+import firm.nodes.Mod;
+import firm.nodes.Node;
+import firm.nodes.Return;
+import firm.nodes.Store;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import minijava.ir.Dominance;
+import minijava.ir.utils.GraphUtils;
+import minijava.ir.utils.NodeUtils;
+
+/**
+ * Interprocedural facts about each method, which hold for all of its call sites:
+ *
+ * <ul>
+ *   <li>Its {@link Effect} on memory: Calls to pure methods only depend on their arguments, calls
+ *       to read-only methods additionally on the memory state they are called in.
+ *   <li>The constant it always returns, if any.
+ *   <li>The parameters which are passed the same constant at every call site.
+ * </ul>
+ *
+ * <p>Effects are computed bottom-up over the strongly connected components of the call graph.
+ * Methods in recursive components or with loops might not terminate, so that they can't be pure:
+ * Unused pure calls are removed and may be moved out of loops. The same goes for methods which
+ * might trap, e.g. by dereferencing null or dividing by zero.
+ *
+ * <p>Optimizations preserve the semantics of a method, so the facts stay valid until the next call
+ * to {@link #analyse(Iterable, ProgramMetrics)}.
+ */
+public class MethodSummaries {
+
+  public enum Effect {
+    PURE,
+    READ_ONLY,
+    ARBITRARY;
+
+    Effect join(Effect other) {
+      return compareTo(other) >= 0 ? this : other;
+    }
+  }
+
+  private final Map<Graph, Effect> effects = new HashMap<>();
+  private final Map<Graph, TargetValue> constantResults = new HashMap<>();
+  private final Map<Graph, Map<Integer, TargetValue>> constantArguments = new HashMap<>();
+
+  /** The effect of calling {@code call}. Calls to foreign functions are arbitrary. */
+  public Effect effectOf(Call call) {
+    return callee(call).map(this::effectOf).orElse(Effect.ARBITRARY);
+  }
+
+  public Effect effectOf(Graph graph) {
+    return effects.getOrDefault(graph, Effect.ARBITRARY);
+  }
+
+  public Optional<TargetValue> constantResult(Graph graph) {
+    return Optional.ofNullable(constantResults.get(graph));
+  }
+
+  /** The parameters of {@code graph} which get the same constant at all call sites, by index. */
+  public Map<Integer, TargetValue> constantArguments(Graph graph) {
+    return constantArguments.getOrDefault(graph, Collections.emptyMap());
+  }
+
+  static Optional<Graph> callee(Call call) {
+    if (!(call.getPtr() instanceof Address)) {
+      return Optional.empty();
+    }
+    return Optional.ofNullable(((Address) call.getPtr()).getEntity().getGraph());
+  }
+
+  /** Recomputes all facts for {@code graphs}, which must contain all callers of any of them. */
+  public void analyse(Iterable<Graph> graphs, ProgramMetrics metrics) {
+    effects.clear();
+    constantResults.clear();
+    constantArguments.clear();
+
+    Map<Graph, List<Call>> callSites = new HashMap<>();
+    Map<Graph, Set<Graph>> callees = new HashMap<>();
+    Map<Graph, Effect> localEffects = new HashMap<>();
+    Map<Graph, Boolean> mayNotTerminate = new HashMap<>();
+    for (Graph graph : graphs) {
+      List<Node> nodes = GraphUtils.topologicalOrder(graph);
+      Effect local = Effect.PURE;
+      Set<Graph> calledByGraph = new HashSet<>();
+      for (Node node : nodes) {
+        local = local.join(localEffect(node));
+        if (node instanceof Call) {
+          callee((Call) node)
+              .ifPresent(
+                  callee -> {
+                    calledByGraph.add(callee);
+                    callSites.computeIfAbsent(callee, k -> new ArrayList<>()).add((Call) node);
+                  });
+        }
+      }
+      localEffects.put(graph, local);
+      callees.put(graph, calledByGraph);
+      mayNotTerminate.put(graph, metrics.getGraphInfo(graph).diverges || hasLoop(nodes));
+      returnedConstant(graph).ifPresent(tv -> constantResults.put(graph, tv));
+    }
+    // We computed dominance for the last graph only
+    Dominance.invalidateDominace();
+
+    // Components are in reverse topological order, so we see callees before callers. The call
+    // graph of the metrics might be outdated, e.g. after inlining, so the callees are taken from the
+    // graphs themselves. Callees which weren't summarized yet are arbitrary.
+    for (Set<Graph> component : metrics.stronglyConnectedComponents()) {
+      boolean recursive =
+          component.size() > 1
+              || seq(component)
+                  .anyMatch(g -> callees.getOrDefault(g, Collections.emptySet()).contains(g));
+      Effect effect = Effect.PURE;
+      for (Graph graph : component) {
+        if (!localEffects.containsKey(graph)) {
+          effect = Effect.ARBITRARY;
+          break;
+        }
+        effect = effect.join(localEffects.get(graph));
+        if (recursive || mayNotTerminate.get(graph)) {
+          effect = effect.join(Effect.READ_ONLY);
+        }
+        for (Graph callee : callees.get(graph)) {
+          if (!component.contains(callee)) {
+            effect = effect.join(effectOf(callee));
+          }
+        }
+      }
+      // Members of a recursive component are summarized together, as they call each other.
+      for (Graph graph : component) {
+        effects.put(graph, effect);
+      }
+    }
+
+    for (Map.Entry<Graph, List<Call>> callee : callSites.entrySet()) {
+      if (ProgramMetrics.isMain(callee.getKey())) {
+        // main is also called by the runtime
+        continue;
+      }
+      Map<Integer, TargetValue> constants = sameConstantArguments(callee.getValue());
+      if (!constants.isEmpty()) {
+        constantArguments.put(callee.getKey(), constants);
+      }
+    }
+  }
+
+  private static Effect localEffect(Node node) {
+    if (node instanceof Store) {
+      return Effect.ARBITRARY;
+    }
+    if (node instanceof Load) {
+      // Loads might dereference null
+      return Effect.READ_ONLY;
+    }
+    if (node instanceof Call) {
+      // Calls to other methods are accounted for separately.
+      return callee((Call) node).isPresent() ? Effect.PURE : Effect.ARBITRARY;
+    }
+    if (node instanceof Div || node instanceof Mod) {
+      // Division traps for a zero divisor and for MIN_INT / -1.
+      Node right = node instanceof Div ? ((Div) node).getRight() : ((Mod) node).getRight();
+      Optional<Const> divisor = NodeUtils.asConst(right);
+      boolean mayTrap =
+          !divisor.isPresent()
+              || divisor.get().getTarval().isNull()
+              || divisor.get().getTarval().asLong() == -1;
+      return mayTrap ? Effect.READ_ONLY : Effect.PURE;
+    }
+    return Effect.PURE;
+  }
+
+  private static boolean hasLoop(List<Node> nodes) {
+    Dominance.invalidateDominace();
+    return seq(nodes).ofType(Block.class).anyMatch(NodeUtils::hasIncomingBackEdge);
+  }
+
+  /** The constant all Returns of {@code graph} return, if there is one. */
+  private static Optional<TargetValue> returnedConstant(Graph graph) {
+    Block endBlock = graph.getEndBlock();
+    TargetValue result = null;
+    for (Node pred : endBlock.getPreds()) {
+      if (!(pred instanceof Return) || pred.getPredCount() != 2) {
+        return Optional.empty();
+      }
+      Optional<Const> value = NodeUtils.asConst(pred.getPred(1));
+      if (!value.isPresent()) {
+        return Optional.empty();
+      }
+      TargetValue tv = value.get().getTarval();
+      if (result != null && !sameConstant(result, tv)) {
+        return Optional.empty();
+      }
+      result = tv;
+    }
+    return Optional.ofNullable(result);
+  }
+
+  /** The arguments which are the same constant for all {@code calls}, by parameter index. */
+  private static Map<Integer, TargetValue> sameConstantArguments(List<Call> calls) {
+    Map<Integer, TargetValue> constants = new HashMap<>();
+    // The first two preds of a Call are the memory and the callee address.
+    int arguments = calls.get(0).getPredCount() - 2;
+    for (int i = 0; i < arguments; ++i) {
+      TargetValue constant = null;
+      for (Call call : calls) {
+        Optional<Const> argument = NodeUtils.asConst(call.getPred(i + 2));
+        if (!argument.isPresent()
+            || constant != null && !sameConstant(constant, argument.get().getTarval())) {
+          constant = null;
+          break;
+        }
+        constant = argument.get().getTarval();
+      }
+      if (constant != null) {
+        constants.put(i, constant);
+      }
+    }
+    return constants;
+  }
+
+  private static boolean sameConstant(TargetValue a, TargetValue b) {
+    return a.getMode().equals(b.getMode()) && a.compare(b) == Relation.Equal;
+  }
+}
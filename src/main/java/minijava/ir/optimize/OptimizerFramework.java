@@ -9,6 +9,7 @@ import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import minijava.Cli;
+import minijava.ir.utils.GraphUtils;
 import org.jooq.lambda.Seq;
 import org.pcollections.HashTreePMap;
 import org.pcollections.HashTreePSet;
@@ -37,8 +38,13 @@ public class OptimizerFramework {
   /**
    * This will run each optimization at least once until a fixed-point is reached. Note that
    * first-registered Optimizers have a higher priority of being run.
+   *
+   * @return Whether any of the optimizers changed the graph.
    */
-  public void optimizeUntilFixedpoint(Graph graph) {
+  public boolean optimizeUntilFixedpoint(Graph graph) {
+    boolean hasChangedAny = false;
+    // Cached orders are only trusted within a run, as we don't know what happened in between.
+    GraphUtils.invalidateTopologicalOrder(graph);
     SortedSet<Integer> toVisit = new TreeSet<>(Seq.range(0, idToOptimizers.length).toList());
     while (!toVisit.isEmpty()) {
       int next = toVisit.first();
@@ -52,6 +58,8 @@ public class OptimizerFramework {
       boolean hasChanged = chosenOptimizer.optimize(graph);
       watch.stop();
       if (hasChanged) {
+        hasChangedAny = true;
+        GraphUtils.invalidateTopologicalOrder(graph);
         // The optimizer changed something, so we enqueue all dependent optimizers
         List<Integer> needRerun = referrers[next];
         LOGGER.debug(
@@ -59,8 +67,12 @@ public class OptimizerFramework {
                 + Iterables.toString(
                     seq(needRerun).map(i -> idToOptimizers[i].getClass().getSimpleName())));
         toVisit.addAll(needRerun);
+      } else {
+        GraphUtils.retainTopologicalOrder(graph);
       }
     }
+    GraphUtils.invalidateTopologicalOrder(graph);
+    return hasChangedAny;
   }
 
   public void logPerformanceStats() {
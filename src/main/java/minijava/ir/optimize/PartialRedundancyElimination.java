@@ -0,0 +1,235 @@
+package minijava.ir.optimize;
+
+import static firm.bindings.binding_irnode.ir_opcode.iro_Bad;
+import static org.jooq.lambda.tuple.Tuple.tuple;
+
+import firm.Graph;
+import firm.Mode;
+import firm.nodes.Add;
+import firm.nodes.And;
+import firm.nodes.Block;
+import firm.nodes.Const;
+import firm.nodes.Conv;
+import firm.nodes.Eor;
+import firm.nodes.Minus;
+import firm.nodes.Mul;
+import firm.nodes.Node;
+import firm.nodes.Not;
+import firm.nodes.Or;
+import firm.nodes.Phi;
+import firm.nodes.Shl;
+import firm.nodes.Shr;
+import firm.nodes.Shrs;
+import firm.nodes.Sub;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import minijava.ir.Dominance;
+import minijava.ir.utils.FirmUtils;
+import minijava.ir.utils.GraphUtils;
+import minijava.ir.utils.NodeUtils;
+import org.jooq.lambda.Seq;
+import org.jooq.lambda.tuple.Tuple2;
+
+/**
+ * Eliminates expressions in join blocks which are already computed on some of the incoming paths.
+ *
+ * <p>{@link CommonSubexpressionElimination} only merges expressions where one dominates the other.
+ * Consider {@code if (c) { x = a + b; } else { y = a * 2; } z = a + b;}: {@code a + b} is available
+ * on the then path, but not on the else path. We insert a copy of the expression at the end of the
+ * else block and replace {@code z} by a Phi of both values. If the expression is available on all
+ * paths, we don't have to insert anything at all.
+ *
+ * <p>Operands which are Phis of the join block are translated into their value on the respective
+ * path before we look for equivalent expressions, so that {@code Phi(a, b) + 1} finds {@code a + 1}
+ * and {@code b + 1} in the predecessors. This is the value numbering part of GVN-PRE.
+ *
+ * <p>We only insert into predecessors which have the join block as their only successor, so that no
+ * path is lengthened, and never into loops through their back edge. Only pure arithmetic which
+ * can't trap is considered.
+ */
+public class PartialRedundancyElimination extends BaseOptimizer {
+
+  /** Candidate expressions by their class and mode. */
+  private final Map<Tuple2<Class<?>, Mode>, List<Node>> expressions = new HashMap<>();
+  /** Expressions which we replaced already and which thus may not be used any more. */
+  private final Set<Node> eliminated = new HashSet<>();
+
+  @Override
+  public boolean optimize(Graph graph) {
+    this.graph = graph;
+    this.hasChanged = false;
+    expressions.clear();
+    eliminated.clear();
+    Dominance.invalidateDominace();
+    FirmUtils.withBackEdges(
+        graph,
+        () -> {
+          List<Node> order = GraphUtils.topologicalOrder(graph);
+          for (Node node : order) {
+            if (isCandidate(node)) {
+              expressionsLike(node).add(node);
+            }
+          }
+          for (Node node : order) {
+            if (isCandidate(node)) {
+              eliminate(node);
+            }
+          }
+        });
+    return hasChanged;
+  }
+
+  private static boolean isCandidate(Node node) {
+    if (node.getMode().equals(Mode.getb())
+        || node.getMode().equals(Mode.getM())
+        || node.getMode().equals(Mode.getT())) {
+      return false;
+    }
+    return node instanceof Add
+        || node instanceof Sub
+        || node instanceof Mul
+        || node instanceof And
+        || node instanceof Or
+        || node instanceof Eor
+        || node instanceof Shl
+        || node instanceof Shr
+        || node instanceof Shrs
+        || node instanceof Minus
+        || node instanceof Not
+        || node instanceof Conv;
+  }
+
+  private static boolean isCommutative(Node node) {
+    return node instanceof Add
+        || node instanceof Mul
+        || node instanceof And
+        || node instanceof Or
+        || node instanceof Eor;
+  }
+
+  private List<Node> expressionsLike(Node node) {
+    return expressions.computeIfAbsent(
+        tuple(node.getClass(), node.getMode()), k -> new ArrayList<>());
+  }
+
+  private void eliminate(Node expression) {
+    Block join = (Block) expression.getBlock();
+    int n = join.getPredCount();
+    if (n < 2 || NodeUtils.hasIncomingBackEdge(join)) {
+      return;
+    }
+
+    Node[] values = new Node[n];
+    Node[][] operands = new Node[n][];
+    boolean anyAvailable = false;
+    for (int i = 0; i < n; ++i) {
+      Node cfPred = join.getPred(i);
+      if (cfPred.getOpCode() == iro_Bad) {
+        return;
+      }
+      Block pred = (Block) cfPred.getBlock();
+      operands[i] = translateOperands(expression, join, i);
+      if (operands[i] == null) {
+        return;
+      }
+      Optional<Node> available = findAvailable(expression, operands[i], pred);
+      if (available.isPresent()) {
+        values[i] = available.get();
+        anyAvailable = true;
+      } else if (NodeUtils.getControlFlowSuccessors(pred).count() != 1) {
+        // Inserting here would also compute the expression on paths not leading to join.
+        return;
+      }
+    }
+    if (!anyAvailable) {
+      // This would just hoist the expression into all predecessors without any gain.
+      return;
+    }
+
+    for (int i = 0; i < n; ++i) {
+      if (values[i] == null) {
+        Block pred = (Block) join.getPred(i).getBlock();
+        Node copy = graph.copyNode(expression);
+        copy.setBlock(pred);
+        for (int k = 0; k < operands[i].length; ++k) {
+          copy.setPred(k, operands[i][k]);
+        }
+        expressionsLike(copy).add(copy);
+        values[i] = copy;
+      }
+    }
+
+    boolean allSame = Seq.of(values).distinct().count() == 1;
+    Node replacement = allSame ? values[0] : graph.newPhi(join, values, expression.getMode());
+    Graph.exchange(expression, replacement);
+    eliminated.add(expression);
+    hasChanged = true;
+  }
+
+  /**
+   * The operands of {@code expression} as seen at the end of the {@code i}th predecessor of {@code
+   * join}, or null if one of them is computed in {@code join} itself.
+   */
+  private static Node[] translateOperands(Node expression, Block join, int i) {
+    Node[] operands = new Node[expression.getPredCount()];
+    for (int k = 0; k < operands.length; ++k) {
+      Node operand = expression.getPred(k);
+      if (operand.getBlock().equals(join)) {
+        if (!(operand instanceof Phi)) {
+          return null;
+        }
+        operand = operand.getPred(i);
+      }
+      operands[k] = operand;
+    }
+    return operands;
+  }
+
+  /** Looks for an expression equivalent to {@code expression} with {@code operands} in scope. */
+  private Optional<Node> findAvailable(Node expression, Node[] operands, Block pred) {
+    for (Node candidate : expressionsLike(expression)) {
+      if (eliminated.contains(candidate)) {
+        continue;
+      }
+      if (!sameOperands(candidate, operands, false)
+          && !(isCommutative(candidate) && sameOperands(candidate, operands, true))) {
+        continue;
+      }
+      if (Dominance.dominates((Block) candidate.getBlock(), pred)) {
+        return Optional.of(candidate);
+      }
+    }
+    return Optional.empty();
+  }
+
+  private static boolean sameOperands(Node candidate, Node[] operands, boolean swapped) {
+    if (candidate.getPredCount() != operands.length) {
+      return false;
+    }
+    for (int k = 0; k < operands.length; ++k) {
+      Node operand = operands[swapped ? operands.length - 1 - k : k];
+      if (!sameValue(candidate.getPred(k), operand)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean sameValue(Node a, Node b) {
+    if (a.equals(b)) {
+      return true;
+    }
+    // Consts are duplicated freely, so we compare them by value.
+    Optional<Const> ca = NodeUtils.asConst(a);
+    Optional<Const> cb = NodeUtils.asConst(b);
+    return ca.isPresent()
+        && cb.isPresent()
+        && a.getMode().equals(b.getMode())
+        && ca.get().getTarval().asLong() == cb.get().getTarval().asLong();
+  }
+}
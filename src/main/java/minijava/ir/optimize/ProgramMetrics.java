@@ -1,23 +1,45 @@
 package minijava.ir.optimize;
 
+import static firm.bindings.binding_irnode.ir_opcode.iro_Call;
 import static org.jooq.lambda.Seq.seq;
 
 import firm.Graph;
 import firm.Program;
 import firm.nodes.Address;
-import firm.nodes.Call;
-import firm.nodes.End;
-import firm.nodes.Node;
-import firm.nodes.NodeVisitor;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
 import minijava.ir.emit.NameMangler;
+import minijava.ir.utils.GraphSnapshot;
 
+/**
+ * Keeps track of the call graph and of size information for each graph.
+ *
+ * <p>Graph infos are kept up to date incrementally: Optimizers report changed graphs via {@link
+ * #invalidate(Graph)}, which are only re-walked when their info is requested the next time. The
+ * Inliner reports its edits via {@link #recordInlining(Graph, Graph, boolean)}, so that we don't
+ * have to walk the caller at all. Reachability from main and the strongly connected components of
+ * the call graph are cached and only recomputed if an edit to the call graph could have changed
+ * them.
+ */
 public class ProgramMetrics {
-  public final Map<Graph, GraphInfo> graphInfos = new HashMap<>();
+  private final Map<Graph, GraphInfo> graphInfos = new HashMap<>();
+  /** The inverse of {@link GraphInfo#calls}. */
+  private final Map<Graph, Set<Graph>> callers = new HashMap<>();
+  /** Graphs which changed since their info was computed. */
+  private final Set<Graph> dirty = new HashSet<>();
+
+  private Set<Graph> reachableFromMain;
+  private List<Set<Graph>> components;
+  /** Maps each graph to the index of its component in {@link #components}. */
+  private Map<Graph, Integer> componentIndex;
 
   public static ProgramMetrics analyse(Iterable<Graph> graphs) {
     ProgramMetrics metrics = new ProgramMetrics();
@@ -51,31 +73,120 @@ public class ProgramMetrics {
         if (isParent) {
           // This is a back edge. We update the graph info accordingly
           // to mark it as a loop breaker.
-          graphInfos.put(graph, info.markedAsLoopBreaker());
+          setGraphInfo(graph, info.markedAsLoopBreaker());
         }
       }
     }
   }
 
+  /** Returns the up to date info for {@code graph}, re-walking it if it was invalidated. */
+  public GraphInfo getGraphInfo(Graph graph) {
+    if (dirty.remove(graph)) {
+      updateGraphInfoWithoutLoopBreakers(graph);
+    }
+    return graphInfos.get(graph);
+  }
+
   public void updateGraphInfo(Graph graph) {
+    dirty.remove(graph);
     updateGraphInfoWithoutLoopBreakers(graph);
   }
 
+  /**
+   * Marks the info of {@code graph} as outdated. It will be recomputed lazily on the next call to
+   * {@link #getGraphInfo(Graph)}.
+   */
+  public void invalidate(Graph graph) {
+    dirty.add(graph);
+  }
+
+  /** Re-walks all invalidated graphs, so that the call graph is up to date. */
+  private void refreshDirtyGraphs() {
+    for (Graph graph : seq(dirty).toList()) {
+      getGraphInfo(graph);
+    }
+  }
+
+  /**
+   * Updates the info of {@code caller} after {@code callee} was inlined into it, without walking
+   * the caller.
+   *
+   * @param wasLastCall Whether the inlined call was the last call to {@code callee} in {@code
+   *     caller}.
+   */
+  public void recordInlining(Graph caller, Graph callee, boolean wasLastCall) {
+    GraphInfo callerInfo = getGraphInfo(caller);
+    GraphInfo calleeInfo = getGraphInfo(callee);
+    Set<Graph> calls = new HashSet<>(callerInfo.calls);
+    if (wasLastCall) {
+      calls.remove(callee);
+    }
+    calls.addAll(calleeInfo.calls);
+    // The callee's Start and End nodes are gone, but we won't be so picky about that.
+    int size = callerInfo.size + calleeInfo.size;
+    setGraphInfo(caller, new GraphInfo(calls, callerInfo.diverges, size, callerInfo.isLoopBreaker));
+  }
+
   private void updateGraphInfoWithoutLoopBreakers(Graph graph) {
-    GraphWalker walker = new GraphWalker();
-    graph.walk(walker);
-    GraphInfo newInfo = walker.resultSummary();
+    GraphInfo newInfo = summarize(graph);
     GraphInfo oldInfo = graphInfos.get(graph);
     if (oldInfo != null && oldInfo.isLoopBreaker) {
       // We copy the old loop breaker info, so that we don't have to traverse
       // the call graph too often.
       newInfo = newInfo.markedAsLoopBreaker();
     }
-    graphInfos.put(graph, newInfo);
+    setGraphInfo(graph, newInfo);
   }
 
+  /**
+   * Stores the new info of {@code graph}, updating the call graph and invalidating cached
+   * reachability and components where necessary.
+   */
+  private void setGraphInfo(Graph graph, GraphInfo newInfo) {
+    GraphInfo oldInfo = graphInfos.put(graph, newInfo);
+    Set<Graph> oldCalls = oldInfo != null ? oldInfo.calls : new HashSet<>();
+    for (Graph removed : seq(oldCalls).removeAll(newInfo.calls)) {
+      callers.get(removed).remove(graph);
+      // Removing an edge might render the callee unreachable or split a component.
+      reachableFromMain = null;
+      if (components != null && inSameComponent(graph, removed)) {
+        components = null;
+      }
+    }
+    for (Graph added : seq(newInfo.calls).removeAll(oldCalls)) {
+      callers.computeIfAbsent(added, k -> new HashSet<>()).add(graph);
+      if (reachableFromMain != null
+          && reachableFromMain.contains(graph)
+          && !reachableFromMain.contains(added)) {
+        reachableFromMain = null;
+      }
+      // Components are listed in reverse topological order. Adding an edge which respects that
+      // order can't close a cycle. That's always the case for edges introduced by inlining.
+      if (components != null
+          && (!componentIndex.containsKey(added)
+              || !componentIndex.containsKey(graph)
+              || componentIndex.get(added) > componentIndex.get(graph))) {
+        components = null;
+      }
+    }
+  }
+
+  private boolean inSameComponent(Graph a, Graph b) {
+    return componentIndex.containsKey(a) && componentIndex.get(a).equals(componentIndex.get(b));
+  }
+
+  /** Returns all graphs which call {@code graph}. */
+  public Set<Graph> callersOf(Graph graph) {
+    return Collections.unmodifiableSet(callers.getOrDefault(graph, Collections.emptySet()));
+  }
+
+  /** The set of graphs reachable from main. Cached until the call graph changes. */
   public Set<Graph> reachableFromMain() {
-    return reachableFrom(main());
+    refreshDirtyGraphs();
+    if (reachableFromMain == null) {
+      reachableFromMain = Collections.unmodifiableSet(reachableFrom(main()));
+    }
+    return reachableFromMain;
   }
 
   private static Graph main() {
@@ -94,12 +205,40 @@ public class ProgramMetrics {
       }
       reachable.add(cur);
 
-      toVisit.addAll(graphInfos.get(cur).calls);
+      toVisit.addAll(getGraphInfo(cur).calls);
     }
     return reachable;
   }
 
-  private static boolean isMain(Graph g) {
+  /**
+   * Computes the strongly connected components of the call graph with Tarjan's algorithm. Graphs of
+   * different components can be optimized independently of each other, as long as callees are not
+   * inlined into callers concurrently to their optimization.
+   *
+   * @return The components in reverse topological order, e.g. callees come before their callers.
+   *     Cached until the call graph changes.
+   */
+  public List<Set<Graph>> stronglyConnectedComponents() {
+    refreshDirtyGraphs();
+    if (components == null) {
+      Tarjan tarjan = new Tarjan();
+      for (Graph graph : graphInfos.keySet()) {
+        if (!tarjan.index.containsKey(graph)) {
+          tarjan.visit(graph);
+        }
+      }
+      componentIndex = new HashMap<>();
+      for (int i = 0; i < tarjan.components.size(); ++i) {
+        for (Graph graph : tarjan.components.get(i)) {
+          componentIndex.put(graph, i);
+        }
+      }
+      components = Collections.unmodifiableList(tarjan.components);
+    }
+    return components;
+  }
+
+  static boolean isMain(Graph g) {
     return g.getEntity().getLdName().equals(NameMangler.mangledMainMethodName());
   }
 
@@ -120,6 +259,42 @@ public class ProgramMetrics {
     onFinish.accept(graph);
   }
 
+  private class Tarjan {
+    private final Map<Graph, Integer> index = new HashMap<>();
+    private final Map<Graph, Integer> lowlink = new HashMap<>();
+    private final Deque<Graph> stack = new ArrayDeque<>();
+    private final Set<Graph> onStack = new HashSet<>();
+    private final List<Set<Graph>> components = new ArrayList<>();
+
+    private void visit(Graph graph) {
+      index.put(graph, index.size());
+      lowlink.put(graph, index.get(graph));
+      stack.push(graph);
+      onStack.add(graph);
+
+      for (Graph callee : graphInfos.get(graph).calls) {
+        if (!index.containsKey(callee)) {
+          visit(callee);
+          lowlink.put(graph, Math.min(lowlink.get(graph), lowlink.get(callee)));
+        } else if (onStack.contains(callee)) {
+          lowlink.put(graph, Math.min(lowlink.get(graph), index.get(callee)));
+        }
+      }
+
+      if (lowlink.get(graph).equals(index.get(graph))) {
+        // graph is the root of a component, which consists of everything above it on the stack
+        Set<Graph> component = new HashSet<>();
+        Graph member;
+        do {
+          member = stack.pop();
+          onStack.remove(member);
+          component.add(member);
+        } while (!member.equals(graph));
+        components.add(component);
+      }
+    }
+  }
+
   public static class GraphInfo {
     public final Set<Graph> calls;
     public final boolean diverges;
@@ -138,37 +313,26 @@ public class ProgramMetrics {
     }
   }
 
-  private static class GraphWalker extends NodeVisitor.Default {
-    private final Set<Graph> calls = new HashSet<>();
-    private boolean diverges = true;
-    private int size = 0;
-
-    @Override
-    public void defaultVisit(Node n) {
-      size++;
-    }
-
-    @Override
-    public void visit(End node) {
-      // When the End block has no predecessors (e.g. Return nodes), the graph definitely diverges.
-      diverges = node.getBlock().getPredCount() == 0;
-      super.visit(node);
-    }
-
-    @Override
-    public void visit(Call node) {
-      Address funcPtr = (Address) node.getPtr();
+  /** Summarizes a graph from a {@link GraphSnapshot}, which is much cheaper than a graph walk. */
+  private static GraphInfo summarize(Graph graph) {
+    GraphSnapshot snapshot = GraphSnapshot.of(graph);
+    Set<Graph> calls = new HashSet<>();
+    for (int i = 0; i < snapshot.size(); ++i) {
+      int node = snapshot.reachableNode(i);
+      if (!snapshot.hasOpCode(node, iro_Call)) {
+        continue;
+      }
+      // The function pointer is the second pred, after the memory pred.
+      Address funcPtr = (Address) snapshot.node(snapshot.pred(node, 1));
       Graph callee = funcPtr.getEntity().getGraph();
-      if (callee == null) {
-        // This was a foreign/native call
-        return;
+      if (callee != null) {
+        // Otherwise this was a foreign/native call
+        calls.add(callee);
       }
-      calls.add(callee);
-      super.visit(node);
-    }
-
-    public GraphInfo resultSummary() {
-      return new GraphInfo(calls, diverges, size, false);
     }
+    // When the End block has no predecessors (e.g. Return nodes), the graph definitely diverges.
+    int endBlock = snapshot.getBlock(snapshot.indexOf(graph.getEnd()));
+    boolean diverges = snapshot.getPredCount(endBlock) == 0;
+    return new GraphInfo(calls, diverges, snapshot.size(), false);
   }
 }
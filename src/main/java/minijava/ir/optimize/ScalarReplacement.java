@@ -0,0 +1,291 @@
+package minijava.ir.optimize;
+
+import static org.jooq.lambda.Seq.seq;
+
+import firm.BackEdges;
+import firm.Graph;
+import firm.Mode;
+import firm.nodes.Block;
+import firm.nodes.Call;
+import firm.nodes.Conv;
+import firm.nodes.Load;
+import firm.nodes.Member;
+import firm.nodes.Node;
+import firm.nodes.Phi;
+import firm.nodes.Proj;
+import firm.nodes.Sel;
+import firm.nodes.Store;
+import firm.nodes.Sync;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import minijava.ir.Dominance;
+import minijava.ir.utils.FirmUtils;
+import minijava.ir.utils.GraphUtils;
+import minijava.ir.utils.NodeUtils;
+
+/**
+ * Replaces allocations which don't escape the method by SSA values for each of their fields or
+ * array elements.
+ *
+ * <p>Just like in the {@link AliasAnalyzer}, every call to calloc is the base of a fresh chunk of
+ * memory, whose slots are identified by the offset of a field or a constant array index. As long as
+ * the pointer returned by calloc is only used as the address of Loads and Stores through Member or
+ * Sel nodes, it can't be aliased by any other pointer: It is never stored, passed to a call, merged
+ * in a Phi or returned. In that case the chunk is private to the method and we can track the values
+ * of its slots along the memory chain instead, just like local variables.
+ *
+ * <p>This only works for allocations of fixed size, e.g. objects and arrays with a constant length,
+ * which are only indexed by constants. This is typically the case for temporary objects after
+ * inlining their methods.
+ */
+public class ScalarReplacement extends BaseOptimizer {
+  /** Arrays with more elements than this stay on the heap. */
+  private static final int MAX_ARRAY_ELEMENTS = 16;
+
+  @Override
+  public boolean optimize(Graph graph) {
+    this.graph = graph;
+    this.hasChanged = false;
+    Dominance.invalidateDominace();
+    FirmUtils.withBackEdges(
+        graph,
+        () -> {
+          List<Call> allocations =
+              seq(GraphUtils.topologicalOrder(graph))
+                  .ofType(Call.class)
+                  .filter(AliasAnalyzer::isCalloc)
+                  .toList();
+          for (Call allocation : allocations) {
+            Optional<Map<Integer, List<Node>>> accesses = accessesIfNotEscaping(allocation);
+            if (accesses.isPresent() && replace(allocation, accesses.get())) {
+              hasChanged = true;
+            }
+          }
+        });
+    return hasChanged;
+  }
+
+  /**
+   * Groups all Loads and Stores to the memory of {@code allocation} by the offset of the accessed
+   * slot. Returns nothing if the allocation escapes or has a slot we can't determine statically.
+   */
+  private static Optional<Map<Integer, List<Node>>> accessesIfNotEscaping(Call allocation) {
+    Optional<Integer> elements = numberOfElements(allocation);
+    if (!elements.isPresent() || elements.get() < 1 || elements.get() > MAX_ARRAY_ELEMENTS) {
+      return Optional.empty();
+    }
+
+    Map<Integer, List<Node>> accesses = new HashMap<>();
+    for (BackEdges.Edge be : BackEdges.getOuts(allocation)) {
+      if (!(be.node instanceof Proj)) {
+        return Optional.empty();
+      }
+      Proj proj = (Proj) be.node;
+      if (proj.getMode().equals(Mode.getM())) {
+        continue;
+      }
+      if (!proj.getMode().equals(Mode.getT())) {
+        return Optional.empty();
+      }
+      for (BackEdges.Edge resultEdge : BackEdges.getOuts(proj)) {
+        for (BackEdges.Edge addressEdge : BackEdges.getOuts(resultEdge.node)) {
+          Optional<Integer> offset = slotOffset(addressEdge, elements.get());
+          if (!offset.isPresent()) {
+            return Optional.empty();
+          }
+          for (BackEdges.Edge access : BackEdges.getOuts(addressEdge.node)) {
+            // The address must not be the stored value or something else entirely.
+            boolean isAddress =
+                (access.node instanceof Load || access.node instanceof Store) && access.pos == 1;
+            if (!isAddress) {
+              return Optional.empty();
+            }
+            accesses.computeIfAbsent(offset.get(), k -> new ArrayList<>()).add(access.node);
+          }
+        }
+      }
+    }
+
+    for (List<Node> slotAccesses : accesses.values()) {
+      if (seq(slotAccesses).map(ScalarReplacement::accessMode).distinct().count() != 1) {
+        return Optional.empty();
+      }
+    }
+    return Optional.of(accesses);
+  }
+
+  private static Optional<Integer> numberOfElements(Call allocation) {
+    // calloc(num, size), where num was converted to P
+    Node num = allocation.getPred(2);
+    if (num instanceof Conv) {
+      num = ((Conv) num).getOp();
+    }
+    return NodeUtils.asConst(num).map(c -> c.getTarval().asInt());
+  }
+
+  /** The offset of the slot which {@code address} refers to, if it is a Member or a Sel. */
+  private static Optional<Integer> slotOffset(BackEdges.Edge address, int elements) {
+    if (address.pos != 0) {
+      return Optional.empty();
+    }
+    if (address.node instanceof Member) {
+      return Optional.of(((Member) address.node).getEntity().getOffset());
+    }
+    if (address.node instanceof Sel) {
+      return NodeUtils.asConst(((Sel) address.node).getIndex())
+          .map(c -> c.getTarval().asInt())
+          .filter(i -> i >= 0 && i < elements);
+    }
+    return Optional.empty();
+  }
+
+  private static Mode accessMode(Node access) {
+    return access instanceof Load
+        ? ((Load) access).getLoadMode()
+        : ((Store) access).getValue().getMode();
+  }
+
+  /**
+   * Replaces all accesses of the allocation's slots by SSA values and removes the allocation. Only
+   * fails without touching the graph when some memory state can't be mapped to a unique Store.
+   */
+  private boolean replace(Call allocation, Map<Integer, List<Node>> accesses) {
+    List<Node> memoryStates =
+        seq(GraphUtils.topologicalOrder(graph))
+            .filter(n -> n.getMode().equals(Mode.getM()))
+            .toList();
+
+    Map<Integer, Map<Node, Node>> definitionsBySlot = new HashMap<>();
+    for (Map.Entry<Integer, List<Node>> slot : accesses.entrySet()) {
+      Set<Store> stores = seq(slot.getValue()).ofType(Store.class).toSet();
+      Optional<Map<Node, Node>> definitions = reachingDefinitions(allocation, stores, memoryStates);
+      if (!definitions.isPresent()) {
+        return false;
+      }
+      definitionsBySlot.put(slot.getKey(), definitions.get());
+    }
+
+    Map<Node, Node> loadedValues = new HashMap<>();
+    for (Map.Entry<Integer, List<Node>> slot : accesses.entrySet()) {
+      Map<Node, Node> definitions = definitionsBySlot.get(slot.getKey());
+      Mode mode = accessMode(slot.getValue().get(0));
+      Map<Node, Node> valuePhis = new HashMap<>();
+      for (Load load : seq(slot.getValue()).ofType(Load.class)) {
+        Node definition = definitions.getOrDefault(load.getMem(), allocation);
+        loadedValues.put(load, valueOf(definition, allocation, mode, definitions, valuePhis));
+      }
+    }
+
+    // Only now that all values are computed, we can start to rewire the memory chain.
+    // A loaded value may itself be the result of another Load of the allocation (think
+    // `o.b = o.a;`), which might already be exchanged. We have to follow those to the live node.
+    Map<Node, Node> replacedResults = new HashMap<>();
+    for (List<Node> slotAccesses : accesses.values()) {
+      for (Node access : slotAccesses) {
+        Node mem = access.getPred(0);
+        Node value = loadedValues.get(access);
+        while (replacedResults.containsKey(value)) {
+          value = replacedResults.get(value);
+        }
+        for (BackEdges.Edge be : seq(BackEdges.getOuts(access)).toList()) {
+          if (be.node.getMode().equals(Mode.getM())) {
+            Graph.exchange(be.node, mem);
+          } else {
+            Graph.exchange(be.node, value);
+            replacedResults.put(be.node, value);
+          }
+        }
+      }
+    }
+    for (BackEdges.Edge be : seq(BackEdges.getOuts(allocation)).toList()) {
+      if (be.node.getMode().equals(Mode.getM())) {
+        Graph.exchange(be.node, allocation.getMem());
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Maps each memory state to the node defining the current value of a single slot: Either one of
+   * {@code stores}, a memory Phi after the allocation or {@code allocation} itself, which means
+   * that the slot is still zero.
+   *
+   * <p>Memory states which don't see the allocation can be treated as if the slot was zero, too:
+   * Accesses to the slot can't happen before the allocation and if the {@link AliasAnalyzer}
+   * redirected them to such a state, it knew that none of the Stores to the slot intervene. This is
+   * also true for memory Phis of loops containing the allocation, which would otherwise confuse the
+   * slots of different iterations.
+   */
+  private static Optional<Map<Node, Node>> reachingDefinitions(
+      Call allocation, Set<Store> stores, List<Node> memoryStates) {
+    Block allocationBlock = (Block) allocation.getBlock();
+    Map<Node, Node> definitions = new HashMap<>();
+    for (Node mem : memoryStates) {
+      Node definition = allocation;
+      if (mem instanceof Phi) {
+        if (Dominance.strictlyDominates(allocationBlock, (Block) mem.getBlock())) {
+          definition = mem;
+        }
+      } else if (mem instanceof Sync) {
+        // Concurrent memory states can't both contain Stores to the slot, as they would alias.
+        Set<Node> merged =
+            seq(mem.getPreds())
+                .map(pred -> definitions.getOrDefault(pred, allocation))
+                .filter(def -> !def.equals(allocation))
+                .toSet();
+        if (merged.size() > 1) {
+          return Optional.empty();
+        }
+        if (!merged.isEmpty()) {
+          definition = merged.iterator().next();
+        }
+      } else if (mem instanceof Proj) {
+        Node sideEffect = mem.getPred(0);
+        if (stores.contains(sideEffect)) {
+          definition = sideEffect;
+        } else if (!sideEffect.equals(allocation)
+            && sideEffect.getPredCount() > 0
+            && sideEffect.getPred(0).getMode().equals(Mode.getM())) {
+          // Nothing else can modify the slot, as the allocation doesn't escape.
+          definition = definitions.getOrDefault(sideEffect.getPred(0), allocation);
+        }
+      }
+      definitions.put(mem, definition);
+    }
+    return Optional.of(definitions);
+  }
+
+  private Node valueOf(
+      Node definition,
+      Call allocation,
+      Mode mode,
+      Map<Node, Node> definitions,
+      Map<Node, Node> valuePhis) {
+    if (definition.equals(allocation)) {
+      // calloc initializes the memory to zero
+      return graph.newConst(0, mode);
+    }
+    if (definition instanceof Store) {
+      return ((Store) definition).getValue();
+    }
+    Node existing = valuePhis.get(definition);
+    if (existing != null) {
+      return existing;
+    }
+    Node[] preds = new Node[definition.getPredCount()];
+    for (int i = 0; i < preds.length; ++i) {
+      preds[i] = graph.newDummy(mode);
+    }
+    Node phi = graph.newPhi(definition.getBlock(), preds, mode);
+    valuePhis.put(definition, phi);
+    for (int i = 0; i < preds.length; ++i) {
+      Node predDefinition = definitions.getOrDefault(definition.getPred(i), allocation);
+      phi.setPred(i, valueOf(predDefinition, allocation, mode, definitions, valuePhis));
+    }
+    return phi;
+  }
+}
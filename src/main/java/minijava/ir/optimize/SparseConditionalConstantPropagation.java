@@ -0,0 +1,128 @@
+package minijava.ir.optimize;
+
+import firm.Graph;
+import firm.Mode;
+import firm.TargetValue;
+import firm.nodes.Block;
+import firm.nodes.Cond;
+import firm.nodes.Node;
+import firm.nodes.Phi;
+import firm.nodes.Proj;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sparse conditional constant propagation after Wegman and Zadeck.
+ *
+ * <p>In addition to the lattice values of the {@link ConstantFolder}, we keep track of which
+ * control flow edges are executable. Nodes in blocks not (yet) known to be reachable stay unknown
+ * and {@link Phi}s only merge the values of executable predecessors, which finds constants the
+ * {@link ConstantFolder} can't: A variable which is only reassigned in a branch that is never taken
+ * is still constant.
+ *
+ * <p>Found constants are substituted like in the {@link ConstantFolder}. That makes the selectors
+ * of dead branches constant, so that the {@link ConstantControlFlowOptimizer} removes them.
+ */
+public class SparseConditionalConstantPropagation extends ConstantFolder {
+
+  /** Control flow nodes (e.g. Jmp or Proj X) known to be executed. */
+  private final Set<Node> executable = new HashSet<>();
+  /** The number of executable predecessors of reachable blocks. */
+  private final Map<Block, Integer> executablePreds = new HashMap<>();
+
+  @Override
+  public boolean optimize(Graph graph) {
+    executable.clear();
+    executablePreds.clear();
+    return super.optimize(graph);
+  }
+
+  private boolean isReachable(Node block) {
+    return executablePreds.containsKey(block);
+  }
+
+  private void markExecutable(Node controlFlow) {
+    if (isReachable(controlFlow.getBlock())) {
+      hasChanged |= executable.add(controlFlow);
+    }
+  }
+
+  @Override
+  protected void updateValue(Node node, TargetValue newValue) {
+    // Nodes in unreachable blocks stay unknown, so that they don't pollute Phis.
+    if (isReachable(node.getBlock())) {
+      super.updateValue(node, newValue);
+    }
+  }
+
+  @Override
+  public void visit(Block block) {
+    int count = 0;
+    for (Node pred : block.getPreds()) {
+      if (executable.contains(pred)) {
+        count++;
+      }
+    }
+    if (block.equals(graph.getStartBlock())) {
+      // The start block is reachable without any incoming edges
+      count++;
+    }
+    if (count == 0) {
+      return;
+    }
+    // Also when a new edge into a reachable block became executable, as its Phis have to be
+    // revisited.
+    Integer previous = executablePreds.put(block, count);
+    hasChanged |= previous == null || previous != count;
+  }
+
+  @Override
+  public void defaultVisit(Node node) {
+    if (node.getMode().equals(Mode.getX())) {
+      // Jmp, Return, etc. are executable iff their block is reachable
+      markExecutable(node);
+    } else {
+      super.defaultVisit(node);
+    }
+  }
+
+  @Override
+  public void visit(Proj node) {
+    if (!node.getMode().equals(Mode.getX())) {
+      super.visit(node);
+      return;
+    }
+    if (node.getPred() instanceof Cond) {
+      TargetValue selector = getValue(((Cond) node.getPred()).getSelector());
+      if (selector.equals(TargetValue.getUnknown())) {
+        // We don't know yet which branch is taken
+        return;
+      }
+      if (selector.isConstant()) {
+        boolean takesTrueBranch = selector.equals(TargetValue.getBTrue());
+        if (takesTrueBranch != (node.getNum() == Cond.pnTrue)) {
+          // This branch is never taken
+          return;
+        }
+      }
+    }
+    markExecutable(node);
+  }
+
+  @Override
+  public void visit(Phi node) {
+    Block block = (Block) node.getBlock();
+    if (!isReachable(block)) {
+      return;
+    }
+    TargetValue newValue = TargetValue.getUnknown();
+    for (int i = 0; i < node.getPredCount(); ++i) {
+      if (executable.contains(block.getPred(i))) {
+        newValue = supremum(newValue, getValue(node.getPred(i)));
+      }
+    }
+    updateValue(node, newValue);
+  }
+}
@@ -0,0 +1,204 @@
+package minijava.ir.optimize;
+
+import static firm.bindings.binding_irnode.ir_opcode.iro_Bad;
+import static org.jooq.lambda.Seq.seq;
+import static org.jooq.lambda.tuple.Tuple.tuple;
+
+import firm.BackEdges;
+import firm.Graph;
+import firm.Mode;
+import firm.Relation;
+import firm.TargetValue;
+import firm.nodes.Add;
+import firm.nodes.Block;
+import firm.nodes.Const;
+import firm.nodes.Conv;
+import firm.nodes.Mul;
+import firm.nodes.Node;
+import firm.nodes.Phi;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import minijava.ir.Dominance;
+import minijava.ir.optimize.licm.InductionVariable;
+import minijava.ir.optimize.licm.LoopNestTree;
+import minijava.ir.utils.FirmUtils;
+import minijava.ir.utils.GraphUtils;
+import minijava.ir.utils.NodeUtils;
+import org.jooq.lambda.tuple.Tuple3;
+
+/**
+ * Replaces multiplications of induction variables with a constant by new induction variables.
+ *
+ * <p>For a basic induction variable {@code i = Phi(init, i + step)} and a multiplication {@code i *
+ * k} inside the loop, we introduce {@code j = Phi(init * k, j + step * k)} in the loop header and
+ * replace the multiplication by {@code j}. If the product is only used as an offset to a loop
+ * invariant pointer {@code a}, as in the lowered array access {@code a + Conv(i) * 4}, the pointer
+ * arithmetic is folded into the new induction variable, which then walks through the array.
+ *
+ * <p>Array accesses only turn into address arithmetic when lowering Sels, so this should run after
+ * {@link firm.Util#lowerSels()}. Basic induction variables with the same start value and step are
+ * merged beforehand.
+ */
+public class StrengthReduction extends BaseOptimizer {
+
+  /** Derived induction variables by base pointer (or null), multiplied value and factor. */
+  private final Map<Tuple3<Node, Node, Long>, Phi> derived = new HashMap<>();
+
+  @Override
+  public boolean optimize(Graph graph) {
+    this.graph = graph;
+    this.hasChanged = false;
+    derived.clear();
+    Dominance.invalidateDominace();
+    return FirmUtils.withBackEdges(
+        graph,
+        () -> {
+          LoopNestTree loops = LoopNestTree.forGraph(graph, GraphUtils.topologicalOrder(graph));
+          loops.visitPostOrder(this::reduceLoop);
+          return hasChanged;
+        });
+  }
+
+  private void reduceLoop(LoopNestTree loop) {
+    if (loop.isRoot()) {
+      return;
+    }
+
+    for (InductionVariable iv : mergeRedundantInductionVariables(InductionVariable.of(loop))) {
+      for (Node user : users(iv.phi)) {
+        if (user instanceof Mul) {
+          reduceMultiplication(iv, (Mul) user, iv.phi);
+        } else if (user instanceof Conv
+            && user.getMode().equals(Mode.getLs())
+            && iv.phi.getMode().equals(Mode.getIs())) {
+          for (Node convUser : users(user)) {
+            if (convUser instanceof Mul) {
+              reduceMultiplication(iv, (Mul) convUser, user);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /** Exchanges induction variables which always have the same value as another one. */
+  private List<InductionVariable> mergeRedundantInductionVariables(List<InductionVariable> ivs) {
+    List<InductionVariable> unique = new ArrayList<>();
+    for (InductionVariable iv : ivs) {
+      Optional<InductionVariable> same =
+          seq(unique)
+              .filter(u -> u.phi.getMode().equals(iv.phi.getMode()))
+              .filter(u -> u.init.equals(iv.init))
+              .filter(u -> u.step.compare(iv.step) == Relation.Equal)
+              .findFirst();
+      if (same.isPresent()) {
+        Graph.exchange(iv.phi, same.get().phi);
+        hasChanged = true;
+      } else {
+        unique.add(iv);
+      }
+    }
+    return unique;
+  }
+
+  /**
+   * Replaces {@code mul}, which multiplies {@code factor} with a constant, by a new induction
+   * variable. {@code factor} is either the Phi of {@code iv} or a {@code Conv} of it to {@code Ls}.
+   */
+  private void reduceMultiplication(InductionVariable iv, Mul mul, Node factor) {
+    LoopNestTree loop = iv.loop;
+    if (!loop.loopBlocks.contains((Block) mul.getBlock())) {
+      return;
+    }
+    Node other = mul.getLeft().equals(factor) ? mul.getRight() : mul.getLeft();
+    Optional<Const> k = NodeUtils.asConst(other);
+    if (!k.isPresent() || other.equals(factor)) {
+      return;
+    }
+
+    List<Node> users = users(mul);
+    boolean isConv = !factor.equals(iv.phi);
+    if (isConv && !seq(users).allMatch(u -> invariantBase(u, mul, loop).isPresent())) {
+      // The product of the converted value only equals the derived induction variable as long as
+      // the narrow induction variable doesn't overflow, which can only happen for out of bounds
+      // array accesses.
+      return;
+    }
+
+    Mode mode = mul.getMode();
+    TargetValue factorValue = k.get().getTarval();
+    TargetValue step = iv.step.convertTo(mode).mul(factorValue);
+    Block entryBlock = (Block) loop.header.getPred(iv.entryEdge).getBlock();
+    Node init = isConv ? graph.newConv(entryBlock, iv.init, mode) : iv.init;
+    Node initProduct = graph.newMul(entryBlock, init, graph.newConst(factorValue));
+
+    for (Node user : users) {
+      Optional<Node> base = invariantBase(user, mul, loop);
+      if (!base.isPresent()) {
+        continue;
+      }
+      Phi pointer =
+          derived.computeIfAbsent(
+              tuple(base.get(), factor, factorValue.asLong()),
+              key ->
+                  newInductionVariable(
+                      iv, graph.newAdd(entryBlock, base.get(), initProduct), step, Mode.getP()));
+      Graph.exchange(user, pointer);
+      hasChanged = true;
+    }
+
+    if (users(mul).isEmpty()) {
+      return;
+    }
+    Phi product =
+        derived.computeIfAbsent(
+            tuple(null, factor, factorValue.asLong()),
+            key -> newInductionVariable(iv, initProduct, step, mode));
+    Graph.exchange(mul, product);
+    hasChanged = true;
+  }
+
+  /**
+   * If {@code user} adds {@code offset} to a pointer which is invariant in {@code loop}, returns
+   * that pointer.
+   */
+  private static Optional<Node> invariantBase(Node user, Node offset, LoopNestTree loop) {
+    if (!(user instanceof Add) || !user.getMode().equals(Mode.getP())) {
+      return Optional.empty();
+    }
+    if (!loop.loopBlocks.contains((Block) user.getBlock())) {
+      return Optional.empty();
+    }
+    Add add = (Add) user;
+    Node base = add.getLeft().equals(offset) ? add.getRight() : add.getLeft();
+    if (base.equals(offset) || loop.loopBlocks.contains((Block) base.getBlock())) {
+      return Optional.empty();
+    }
+    return Optional.of(base);
+  }
+
+  /** Creates a Phi in the loop header of {@code iv}, starting at {@code init}. */
+  private Phi newInductionVariable(InductionVariable iv, Node init, TargetValue step, Mode mode) {
+    Block header = iv.loop.header;
+    Block latch = (Block) header.getPred(iv.backEdge).getBlock();
+    Node[] preds = new Node[header.getPredCount()];
+    for (int i = 0; i < preds.length; ++i) {
+      if (header.getPred(i).getOpCode() == iro_Bad) {
+        preds[i] = graph.newBad(mode);
+      }
+    }
+    preds[iv.entryEdge] = init;
+    // The dummy prevents the Phi from being optimized away on construction
+    preds[iv.backEdge] = graph.newDummy(mode);
+    Phi phi = (Phi) graph.newPhi(header, preds, mode);
+    phi.setPred(iv.backEdge, graph.newAdd(latch, phi, graph.newConst(step)));
+    return phi;
+  }
+
+  private static List<Node> users(Node node) {
+    return seq(BackEdges.getOuts(node)).map(e -> e.node).distinct().toList();
+  }
+}
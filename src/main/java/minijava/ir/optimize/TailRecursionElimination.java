@@ -0,0 +1,201 @@
+package minijava.ir.optimize;
+
+import static org.jooq.lambda.Seq.seq;
+
+import firm.BackEdges;
+import firm.Graph;
+import firm.Mode;
+import firm.nodes.Address;
+import firm.nodes.Block;
+import firm.nodes.Call;
+import firm.nodes.Node;
+import firm.nodes.Phi;
+import firm.nodes.Proj;
+import firm.nodes.Return;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import minijava.ir.Dominance;
+import minijava.ir.utils.FirmUtils;
+import minijava.ir.utils.NodeUtils;
+
+/**
+ * Turns recursive calls in tail position, e.g. calls of the graph to itself whose result is
+ * immediately returned, into jumps back to the beginning of the method.
+ *
+ * <p>We insert a new loop header between the start block and the first block. The arguments and the
+ * initial memory become Phis in that header, which get the arguments and the memory of the
+ * recursive calls on the back edges. Recursive methods are loop breakers for the {@link Inliner},
+ * so otherwise we would pay the full call overhead and stack usage for each recursion.
+ */
+public class TailRecursionElimination extends BaseOptimizer {
+
+  @Override
+  public boolean optimize(Graph graph) {
+    this.graph = graph;
+    boolean changed =
+        FirmUtils.withBackEdges(
+            graph,
+            () -> {
+              List<Return> tailCalls = findRecursiveTailCalls();
+              Optional<Proj> initialExec = initialExec();
+              if (tailCalls.isEmpty() || !initialExec.isPresent()) {
+                return false;
+              }
+              transform(tailCalls, initialExec.get());
+              return true;
+            });
+    if (changed) {
+      Dominance.invalidateDominace();
+    }
+    return changed;
+  }
+
+  /** Returns all Return nodes which directly return the result of a recursive call. */
+  private List<Return> findRecursiveTailCalls() {
+    List<Return> tailCalls = new ArrayList<>();
+    for (Node pred : graph.getEndBlock().getPreds()) {
+      if (pred instanceof Return && recursiveTailCall((Return) pred).isPresent()) {
+        tailCalls.add((Return) pred);
+      }
+    }
+    return tailCalls;
+  }
+
+  private Optional<Call> recursiveTailCall(Return ret) {
+    // Nothing may happen to memory between the call and the return
+    if (!(ret.getMem() instanceof Proj) || !(ret.getMem().getPred(0) instanceof Call)) {
+      return Optional.empty();
+    }
+    Call call = (Call) ret.getMem().getPred(0);
+    if (!call.getBlock().equals(ret.getBlock()) || !(call.getPtr() instanceof Address)) {
+      return Optional.empty();
+    }
+    if (!((Address) call.getPtr()).getEntity().equals(graph.getEntity())) {
+      return Optional.empty();
+    }
+    if (ret.getPredCount() == 1) {
+      // void method
+      return Optional.of(call);
+    }
+    Node result = ret.getPred(1);
+    boolean returnsResultOfCall =
+        result instanceof Proj
+            && result.getPred(0) instanceof Proj
+            && result.getPred(0).getPred(0).equals(call);
+    return returnsResultOfCall ? Optional.of(call) : Optional.empty();
+  }
+
+  /**
+   * Returns the control flow edge from the start block into the first block, if the start block
+   * contains no code we would have to repeat.
+   */
+  private Optional<Proj> initialExec() {
+    Block startBlock = graph.getStartBlock();
+    for (Node node : NodeUtils.getNodesInBlock(startBlock)) {
+      switch (node.getOpCode()) {
+        case iro_Start:
+        case iro_Proj:
+        case iro_Const:
+        case iro_Address:
+        case iro_NoMem:
+        case iro_Bad:
+        case iro_Unknown:
+          break;
+        default:
+          return Optional.empty();
+      }
+    }
+    List<Proj> controlFlow =
+        seq(BackEdges.getOuts(graph.getStart()))
+            .map(be -> be.node)
+            .ofType(Proj.class)
+            .filter(p -> p.getMode().equals(Mode.getX()))
+            .toList();
+    if (controlFlow.size() != 1 || BackEdges.getNOuts(controlFlow.get(0)) != 1) {
+      return Optional.empty();
+    }
+    return Optional.of(controlFlow.get(0));
+  }
+
+  private void transform(List<Return> tailCalls, Proj initialExec) {
+    List<Call> calls = seq(tailCalls).map(r -> recursiveTailCall(r).get()).toList();
+    BackEdges.Edge firstBlockEdge = BackEdges.getOuts(initialExec).iterator().next();
+
+    Node[] headerPreds = new Node[calls.size() + 1];
+    headerPreds[0] = initialExec;
+    for (int i = 0; i < calls.size(); ++i) {
+      headerPreds[i + 1] = graph.newJmp(calls.get(i).getBlock());
+    }
+    Block header = (Block) graph.newBlock(headerPreds);
+    firstBlockEdge.node.setPred(firstBlockEdge.pos, graph.newJmp(header));
+    graph.keepAlive(header);
+
+    // The initial memory and every argument becomes a Phi. The recursive calls pass the values
+    // for the next iteration. Call preds are the memory, the callee address and then the args.
+    Proj initialMem =
+        seq(BackEdges.getOuts(graph.getStart()))
+            .map(be -> be.node)
+            .ofType(Proj.class)
+            .filter(p -> p.getMode().equals(Mode.getM()))
+            .findFirst()
+            .get();
+    Phi memPhi = loopCarried(header, Collections.singletonList(initialMem), calls, Call::getMem);
+    memPhi.setLoop(1);
+    graph.keepAlive(memPhi);
+
+    Map<Integer, List<Proj>> argProjs =
+        seq(BackEdges.getOuts(graph.getArgs()))
+            .map(be -> be.node)
+            .ofType(Proj.class)
+            .groupBy(Proj::getNum);
+    for (Map.Entry<Integer, List<Proj>> arg : argProjs.entrySet()) {
+      int argIndex = arg.getKey();
+      loopCarried(header, arg.getValue(), calls, call -> call.getPred(argIndex + 2));
+    }
+
+    // The returns are replaced by the jumps to the header
+    Block endBlock = graph.getEndBlock();
+    for (int i = 0; i < endBlock.getPredCount(); ++i) {
+      if (tailCalls.contains(endBlock.getPred(i))) {
+        endBlock.setPred(i, graph.newBad(Mode.getX()));
+      }
+    }
+  }
+
+  /**
+   * Creates a Phi in {@code header}, which replaces all usages of {@code initialValues} and takes
+   * its value for the next iteration from the recursive {@code calls}.
+   */
+  private Phi loopCarried(
+      Block header,
+      List<? extends Node> initialValues,
+      List<Call> calls,
+      Function<Call, Node> nextValue) {
+    Node initial = initialValues.get(0);
+    Mode mode = initial.getMode();
+    Node[] preds = new Node[calls.size() + 1];
+    preds[0] = initial;
+    for (int i = 0; i < calls.size(); ++i) {
+      preds[i + 1] = graph.newDummy(mode);
+    }
+    Phi phi = (Phi) graph.newPhi(header, preds, mode);
+
+    for (Node value : initialValues) {
+      for (BackEdges.Edge usage : seq(BackEdges.getOuts(value)).toList()) {
+        if (!usage.node.equals(phi)) {
+          usage.node.setPred(usage.pos, phi);
+        }
+      }
+    }
+
+    // Only now the arguments of the calls refer to the Phis of the current iteration
+    for (int i = 0; i < calls.size(); ++i) {
+      phi.setPred(i + 1, nextValue.apply(calls.get(i)));
+    }
+    return phi;
+  }
+}
@@ -3,6 +3,7 @@ package minijava.ir.optimize;
 import firm.Graph;
 import firm.bindings.binding_irgopt;
 import minijava.ir.Dominance;
+import minijava.ir.utils.GraphUtils;
 
 public class UnreachableCodeRemover implements Optimizer {
 
@@ -19,6 +20,8 @@ public class UnreachableCodeRemover implements Optimizer {
     binding_irgopt.remove_bads(graph.ptr);
     // checking whether a change on the graph occurred doesn't seem to be possible
     Dominance.invalidateDominace();
+    // We report no change, so the OptimizerFramework would retain the order otherwise.
+    GraphUtils.invalidateTopologicalOrder(graph);
     return false;
   }
 }
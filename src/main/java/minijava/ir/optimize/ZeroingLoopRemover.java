@@ -0,0 +1,190 @@
+package minijava.ir.optimize;
+
+import static org.jooq.lambda.Seq.seq;
+
+import com.google.common.collect.Iterables;
+import firm.BackEdges;
+import firm.Graph;
+import firm.Mode;
+import firm.Relation;
+import firm.nodes.Block;
+import firm.nodes.Call;
+import firm.nodes.End;
+import firm.nodes.Load;
+import firm.nodes.Node;
+import firm.nodes.Phi;
+import firm.nodes.Proj;
+import firm.nodes.Sel;
+import firm.nodes.Store;
+import firm.nodes.Sync;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import minijava.ir.Dominance;
+import minijava.ir.optimize.licm.CountedLoop;
+import minijava.ir.optimize.licm.LoopNestTree;
+import minijava.ir.utils.FirmUtils;
+import minijava.ir.utils.GraphUtils;
+import minijava.ir.utils.NodeUtils;
+
+/**
+ * Deletes loops which only store zeros into an array fresh from {@code calloc}, like
+ *
+ * <pre>
+ *   int[] a = new int[n];
+ *   int i = 0;
+ *   while (i < n) { a[i] = 0; i = i + 1; }
+ * </pre>
+ *
+ * <p>calloc already zeroes the memory, so the loop has no effect as long as nothing else was stored
+ * into the array in between. We only delete counted loops which step by one towards a strict bound,
+ * so that they certainly terminate, and whose values aren't used afterwards.
+ */
+public class ZeroingLoopRemover extends BaseOptimizer {
+  /** How many memory nodes we look at on the way back to the allocation. */
+  private static final int MAX_MEMORY_WALK = 100;
+
+  private AliasClasses aliases;
+
+  @Override
+  public boolean optimize(Graph graph) {
+    this.graph = graph;
+    this.hasChanged = false;
+    FirmUtils.withBackEdges(
+        graph,
+        () -> {
+          aliases = AliasClasses.of(graph);
+          LoopNestTree loops = LoopNestTree.forGraph(graph, GraphUtils.topologicalOrder(graph));
+          for (LoopNestTree loop : loops.innermostLoops()) {
+            if (tryRemove(loop)) {
+              hasChanged = true;
+            }
+          }
+        });
+    if (hasChanged) {
+      Dominance.invalidateDominace();
+    }
+    return hasChanged;
+  }
+
+  private boolean tryRemove(LoopNestTree loop) {
+    Optional<CountedLoop> optCounted = CountedLoop.analyse(loop);
+    if (!optCounted.isPresent() || !terminates(optCounted.get())) {
+      return false;
+    }
+    CountedLoop counted = optCounted.get();
+    int entryEdge = counted.iv.entryEdge;
+    Node entry = loop.header.getPred(entryEdge);
+    if (!NodeUtils.isSingleExitNode(entry)) {
+      return false;
+    }
+
+    List<Node> body = loop.nodes();
+    List<Node> sideEffects = seq(body).filter(ZeroingLoopRemover::isSideEffect).toList();
+    List<Phi> memoryPhis =
+        seq(body)
+            .ofType(Phi.class)
+            .filter(phi -> phi.getMode().equals(Mode.getM()))
+            .filter(phi -> phi.getBlock().equals(loop.header))
+            .toList();
+    if (sideEffects.size() != 1
+        || !(sideEffects.get(0) instanceof Store)
+        || memoryPhis.size() != 1) {
+      return false;
+    }
+    Store store = (Store) sideEffects.get(0);
+    Node entryMemory = memoryPhis.get(0).getPred(entryEdge);
+    if (!storesZeroIntoFreshArray(store, entryMemory)) {
+      return false;
+    }
+
+    // Only memory may flow out of the loop. That's the state before the loop after deleting it.
+    List<BackEdges.Edge> leavingMemory = new ArrayList<>();
+    for (Node node : body) {
+      for (BackEdges.Edge usage : BackEdges.getOuts(node)) {
+        if (usage.node instanceof End
+            || usage.node instanceof Block
+            || loop.loopBlocks.contains((Block) usage.node.getBlock())) {
+          continue;
+        }
+        if (!node.getMode().equals(Mode.getM())) {
+          return false;
+        }
+        leavingMemory.add(usage);
+      }
+    }
+    for (BackEdges.Edge usage : leavingMemory) {
+      usage.node.setPred(usage.pos, entryMemory);
+    }
+
+    // Jump right to where the loop was left. The loop itself becomes unreachable.
+    BackEdges.Edge exit = Iterables.getOnlyElement(BackEdges.getOuts(counted.exit));
+    exit.node.setPred(exit.pos, entry);
+    loop.header.setPred(entryEdge, graph.newBad(Mode.getX()));
+    return true;
+  }
+
+  /** Counting by one towards a strict bound can't overflow, so the loop terminates. */
+  private static boolean terminates(CountedLoop counted) {
+    boolean isStrict =
+        counted.relation.equals(Relation.Less) || counted.relation.equals(Relation.Greater);
+    return isStrict && (counted.iv.step.isOne() || counted.iv.step.neg().isOne());
+  }
+
+  /** Memory accesses other than Loads, e.g. Stores and Calls. */
+  private static boolean isSideEffect(Node node) {
+    return !(node instanceof Load) && NodeUtils.dependsOnMemory(node);
+  }
+
+  /**
+   * Whether {@code store} writes a zero into an array allocated by calloc, which nothing may have
+   * written to between the allocation and {@code entryMemory}.
+   */
+  private boolean storesZeroIntoFreshArray(Store store, Node entryMemory) {
+    if (!NodeUtils.asConst(store.getValue()).map(c -> c.getTarval().isNull()).orElse(false)
+        || !(store.getPtr() instanceof Sel)) {
+      return false;
+    }
+    Node array = ((Sel) store.getPtr()).getPtr();
+    if (!AliasClasses.isAllocation(array)) {
+      return false;
+    }
+    Call calloc = (Call) array.getPred(0).getPred(0);
+
+    List<Node> worklist = new ArrayList<>();
+    Set<Node> visited = new HashSet<>();
+    worklist.add(entryMemory);
+    while (!worklist.isEmpty()) {
+      Node mem = worklist.remove(worklist.size() - 1);
+      if (!visited.add(mem)) {
+        continue;
+      }
+      if (visited.size() > MAX_MEMORY_WALK) {
+        return false;
+      }
+      if (mem instanceof Sync) {
+        mem.getPreds().forEach(worklist::add);
+        continue;
+      }
+      if (!(mem instanceof Proj)) {
+        // Phis, the initial memory and everything else we don't care to look through.
+        return false;
+      }
+      Node sideEffect = mem.getPred(0);
+      if (sideEffect.equals(calloc)) {
+        continue;
+      }
+      if (sideEffect instanceof Load) {
+        worklist.add(((Load) sideEffect).getMem());
+      } else if ((sideEffect instanceof Store || sideEffect instanceof Call)
+          && !aliases.mayAlias(store, sideEffect)) {
+        worklist.add(sideEffect.getPred(0));
+      } else {
+        return false;
+      }
+    }
+    return true;
+  }
+}
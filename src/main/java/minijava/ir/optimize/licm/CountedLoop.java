@@ -0,0 +1,135 @@
+package minijava.ir.optimize.licm;
+
+import static org.jooq.lambda.Seq.seq;
+
+import firm.BackEdges;
+import firm.Mode;
+import firm.Relation;
+import firm.nodes.Block;
+import firm.nodes.Cmp;
+import firm.nodes.Cond;
+import firm.nodes.Node;
+import firm.nodes.Proj;
+import java.util.Optional;
+import minijava.ir.utils.NodeUtils;
+import minijava.ir.utils.ProjPair;
+
+/**
+ * A loop, which is only left through the test of the header, comparing a basic induction variable
+ * against a loop invariant bound.
+ */
+public class CountedLoop {
+  public final InductionVariable iv;
+  public final Node bound;
+  /** The relation {@code iv relation bound}, which has to hold for staying in the loop. */
+  public final Relation relation;
+
+  public final Cond cond;
+  public final Proj stay;
+  public final Proj exit;
+  public final Block stayTarget;
+
+  private CountedLoop(
+      InductionVariable iv,
+      Node bound,
+      Relation relation,
+      Cond cond,
+      Proj stay,
+      Proj exit,
+      Block stayTarget) {
+    this.iv = iv;
+    this.bound = bound;
+    this.relation = relation;
+    this.cond = cond;
+    this.stay = stay;
+    this.exit = exit;
+    this.stayTarget = stayTarget;
+  }
+
+  public static Optional<CountedLoop> analyse(LoopNestTree loop) {
+    Optional<Cond> optCond =
+        seq(NodeUtils.getNodesInBlock(loop.header)).ofType(Cond.class).findFirst();
+    if (!optCond.isPresent() || !(optCond.get().getSelector() instanceof Cmp)) {
+      return Optional.empty();
+    }
+    Cond cond = optCond.get();
+    Cmp cmp = (Cmp) cond.getSelector();
+    Optional<ProjPair> projs = NodeUtils.determineProjectionNodes(cond);
+    if (!projs.isPresent()) {
+      return Optional.empty();
+    }
+    Block trueTarget = successor(projs.get().true_);
+    Block falseTarget = successor(projs.get().false_);
+    boolean staysOnTrue = loop.loopBlocks.contains(trueTarget);
+    if (staysOnTrue == loop.loopBlocks.contains(falseTarget)) {
+      return Optional.empty();
+    }
+    Proj stay = staysOnTrue ? projs.get().true_ : projs.get().false_;
+    Proj exit = staysOnTrue ? projs.get().false_ : projs.get().true_;
+    Block stayTarget = staysOnTrue ? trueTarget : falseTarget;
+    if (stayTarget.getPredCount() != 1 || !isOnlyExit(loop, exit)) {
+      return Optional.empty();
+    }
+
+    for (InductionVariable iv : InductionVariable.of(loop)) {
+      if (!iv.phi.getMode().equals(Mode.getIs()) || iv.step.isNull()) {
+        continue;
+      }
+      Relation relation = cmp.getRelation();
+      Node bound;
+      if (cmp.getLeft().equals(iv.phi)) {
+        bound = cmp.getRight();
+      } else if (cmp.getRight().equals(iv.phi)) {
+        bound = cmp.getLeft();
+        relation = relation.inversed();
+      } else {
+        continue;
+      }
+      if (!staysOnTrue) {
+        relation = relation.negated();
+      }
+      if (loop.loopBlocks.contains((Block) bound.getBlock())) {
+        continue;
+      }
+      Optional<Relation> normalized = monotoneRelation(relation, iv.step.isNegative());
+      if (normalized.isPresent()) {
+        return Optional.of(
+            new CountedLoop(iv, bound, normalized.get(), cond, stay, exit, stayTarget));
+      }
+    }
+    return Optional.empty();
+  }
+
+  private static Block successor(Proj proj) {
+    return (Block) seq(BackEdges.getOuts(proj)).findFirst().get().node;
+  }
+
+  /** Checks that there is no other edge leaving the loop than {@code exit}. */
+  private static boolean isOnlyExit(LoopNestTree loop, Proj exit) {
+    for (Block block : loop.loopBlocks) {
+      for (BackEdges.Edge successor : NodeUtils.getControlFlowSuccessors(block)) {
+        boolean leavesLoop = !loop.loopBlocks.contains((Block) successor.node);
+        if (leavesLoop && !successor.node.getPred(successor.pos).equals(exit)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The loop runs while {@code iv relation bound}. When the induction variable counts up, that must
+   * be {@code <} or {@code <=}, when it counts down {@code >} or {@code >=}.
+   */
+  private static Optional<Relation> monotoneRelation(Relation relation, boolean countsDown) {
+    Relation towards = countsDown ? Relation.Greater : Relation.Less;
+    Relation away = countsDown ? Relation.Less : Relation.Greater;
+    if (!relation.contains(towards) || relation.contains(away)) {
+      return Optional.empty();
+    }
+    if (relation.contains(Relation.Equal)) {
+      return Optional.of(countsDown ? Relation.GreaterEqual : Relation.LessEqual);
+    }
+    return Optional.of(towards);
+  }
+}
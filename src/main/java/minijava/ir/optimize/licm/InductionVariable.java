@@ -0,0 +1,104 @@
+package minijava.ir.optimize.licm;
+
+import static org.jooq.lambda.Seq.seq;
+
+import firm.Mode;
+import firm.TargetValue;
+import firm.nodes.Add;
+import firm.nodes.Const;
+import firm.nodes.Node;
+import firm.nodes.Phi;
+import firm.nodes.Sub;
+import java.util.List;
+import java.util.Optional;
+import minijava.ir.utils.NodeUtils;
+
+/**
+ * A basic induction variable of a loop: A Phi in the loop header, which starts with some value from
+ * before the loop and is incremented by a constant step on the back edge.
+ *
+ * <p>We only consider loops with a single entry edge and a single back edge, which is the shape
+ * while loops are emitted in.
+ */
+public class InductionVariable {
+  public final LoopNestTree loop;
+  public final Phi phi;
+  /** Index of the header's predecessor through which the loop is entered. */
+  public final int entryEdge;
+  /** Index of the header's predecessor for the back edge. */
+  public final int backEdge;
+  /** The value before the first iteration. */
+  public final Node init;
+  /** The Add or Sub node computing the value for the next iteration. */
+  public final Node increment;
+  /** The (possibly negative) value added in each iteration. */
+  public final TargetValue step;
+
+  private InductionVariable(
+      LoopNestTree loop,
+      Phi phi,
+      int entryEdge,
+      int backEdge,
+      Node init,
+      Node increment,
+      TargetValue step) {
+    this.loop = loop;
+    this.phi = phi;
+    this.entryEdge = entryEdge;
+    this.backEdge = backEdge;
+    this.init = init;
+    this.increment = increment;
+    this.step = step;
+  }
+
+  /** Finds all basic induction variables of {@code loop}. Needs BackEdges to be enabled. */
+  public static List<InductionVariable> of(LoopNestTree loop) {
+    return seq(NodeUtils.getNodesInBlock(loop.header))
+        .ofType(Phi.class)
+        .map(phi -> analyse(phi, loop))
+        .filter(Optional::isPresent)
+        .map(Optional::get)
+        .toList();
+  }
+
+  public static Optional<InductionVariable> analyse(Phi phi, LoopNestTree loop) {
+    if (loop.isRoot() || !isIntegral(phi.getMode()) || !phi.getBlock().equals(loop.header)) {
+      return Optional.empty();
+    }
+    Optional<Integer> entryEdge = loop.uniqueEntryEdge();
+    Optional<Integer> backEdge = loop.uniqueBackEdge();
+    if (!entryEdge.isPresent() || !backEdge.isPresent()) {
+      return Optional.empty();
+    }
+
+    Node next = phi.getPred(backEdge.get());
+    Optional<TargetValue> step = Optional.empty();
+    if (next instanceof Add) {
+      Add add = (Add) next;
+      if (add.getLeft().equals(phi)) {
+        step = NodeUtils.asConst(add.getRight()).map(Const::getTarval);
+      } else if (add.getRight().equals(phi)) {
+        step = NodeUtils.asConst(add.getLeft()).map(Const::getTarval);
+      }
+    } else if (next instanceof Sub) {
+      Sub sub = (Sub) next;
+      if (sub.getLeft().equals(phi)) {
+        step = NodeUtils.asConst(sub.getRight()).map(Const::getTarval).map(TargetValue::neg);
+      }
+    }
+
+    return step.map(
+        s ->
+            new InductionVariable(
+                loop, phi, entryEdge.get(), backEdge.get(), phi.getPred(entryEdge.get()), next, s));
+  }
+
+  private static boolean isIntegral(Mode mode) {
+    return mode.equals(Mode.getIs()) || mode.equals(Mode.getLs());
+  }
+
+  @Override
+  public String toString() {
+    return "InductionVariable{" + phi + " = " + init + " + i * " + step + '}';
+  }
+}
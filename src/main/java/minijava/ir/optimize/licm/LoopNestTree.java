@@ -1,15 +1,25 @@
 package minijava.ir.optimize.licm;
 
+import static firm.bindings.binding_irnode.ir_opcode.iro_Bad;
 import static org.jooq.lambda.Seq.seq;
 
+import com.google.common.collect.Sets;
+import firm.Graph;
+import firm.Mode;
 import firm.nodes.Block;
+import firm.nodes.Node;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
+import minijava.ir.Dominance;
+import minijava.ir.utils.NodeUtils;
+import org.jooq.lambda.Seq;
 
 /**
  * Abstracts useful information about loops. Each node represents a loop by its header block and the
@@ -28,6 +38,54 @@ public class LoopNestTree {
     this.parent = this;
   }
 
+  /**
+   * Builds the loop nest tree of {@code graph} from {@code allNodes}, which should contain at least
+   * all reachable blocks. Needs BackEdges to be enabled.
+   */
+  public static LoopNestTree forGraph(Graph graph, Iterable<Node> allNodes) {
+    Map<Block, Set<Block>> loopBlocks = new HashMap<>();
+    Set<Block> allBlocks = new HashSet<>();
+    for (Block header : seq(allNodes).ofType(Block.class)) {
+      allBlocks.add(header);
+      if (!isLoopHeader(header)) {
+        continue;
+      }
+
+      Set<Block> body = blocksOfLoop(header);
+      loopBlocks.put(header, body);
+    }
+
+    // We also add a pseudo node for nodes not in a loop, which will be the root.
+    loopBlocks.put(graph.getStartBlock(), allBlocks);
+
+    return fromLoopBlocks(loopBlocks);
+  }
+
+  private static Set<Block> blocksOfLoop(Block header) {
+    Set<Block> reachable = new HashSet<>();
+    Set<Block> toVisit = Sets.newHashSet(header);
+    while (!toVisit.isEmpty()) {
+      Block cur = toVisit.iterator().next();
+      toVisit.remove(cur);
+      boolean notPartOfLoop = !Dominance.dominates(header, cur);
+      if (reachable.contains(cur) || notPartOfLoop) {
+        continue;
+      }
+      reachable.add(cur);
+      Seq<Block> cfgPreds =
+          seq(cur.getPreds())
+              .filter(n -> n.getMode().equals(Mode.getX()))
+              .map(Node::getBlock)
+              .cast(Block.class);
+      cfgPreds.forEach(toVisit::add);
+    }
+    return reachable;
+  }
+
+  private static boolean isLoopHeader(Block block) {
+    return NodeUtils.hasIncomingBackEdge(block);
+  }
+
   public static LoopNestTree fromLoopBlocks(Map<Block, Set<Block>> loopBlocks) {
     Map<Block, Block> parents = new HashMap<>();
     for (Map.Entry<Block, Set<Block>> entry : loopBlocks.entrySet()) {
@@ -81,6 +139,37 @@ public class LoopNestTree {
     }
   }
 
+  /** The root doesn't represent a loop, but the whole program. */
+  public boolean isRoot() {
+    return parent == this;
+  }
+
+  /**
+   * Returns the index of the single header predecessor from outside the loop, if the loop can only
+   * be entered through a single edge.
+   */
+  public Optional<Integer> uniqueEntryEdge() {
+    List<Integer> entries = headerPredsWhere(pred -> !loopBlocks.contains(pred));
+    return entries.size() == 1 ? Optional.of(entries.get(0)) : Optional.empty();
+  }
+
+  /** Returns the index of the single back edge into the header, if there is exactly one. */
+  public Optional<Integer> uniqueBackEdge() {
+    List<Integer> backEdges = headerPredsWhere(loopBlocks::contains);
+    return backEdges.size() == 1 ? Optional.of(backEdges.get(0)) : Optional.empty();
+  }
+
+  private List<Integer> headerPredsWhere(Predicate<Block> predicate) {
+    List<Integer> indices = new ArrayList<>();
+    for (int i = 0; i < header.getPredCount(); ++i) {
+      Node pred = header.getPred(i);
+      if (pred.getOpCode() != iro_Bad && predicate.test((Block) pred.getBlock())) {
+        indices.add(i);
+      }
+    }
+    return indices;
+  }
+
   public Optional<LoopNestTree> findInnermostEnclosingLoop(Block block) {
     if (!loopBlocks.contains(block)) {
       return Optional.empty();
@@ -97,6 +186,23 @@ public class LoopNestTree {
     return Optional.of(this);
   }
 
+  /** The loops without nested loops, in post order. */
+  public List<LoopNestTree> innermostLoops() {
+    List<LoopNestTree> innermost = new ArrayList<>();
+    visitPostOrder(
+        loop -> {
+          if (!loop.isRoot() && loop.children.isEmpty()) {
+            innermost.add(loop);
+          }
+        });
+    return innermost;
+  }
+
+  /** All nodes in the loop, including those of nested loops. Needs back edges. */
+  public List<Node> nodes() {
+    return seq(loopBlocks).flatMap(b -> seq(NodeUtils.getNodesInBlock(b))).toList();
+  }
+
   public void visitPostOrder(Consumer<LoopNestTree> visit) {
     for (LoopNestTree child : children) {
       child.visitPostOrder(visit);
@@ -113,6 +113,12 @@ public class ExtensionalEqualityComparator implements Comparator<Node> {
       }
     }
 
+    @Override
+    public void visit(Address node) {
+      boolean sameEntity = node.getEntity().equals(((Address) other).getEntity());
+      cmp = sameEntity ? 0 : node.getNr() - other.getNr();
+    }
+
     @Override
     public void visit(Sel node) {
       cmp = selectedElementSize(node) - selectedElementSize((Sel) other);
@@ -0,0 +1,166 @@
+package minijava.ir.utils;
+
+import static firm.bindings.binding_irnode.ir_opcode.iro_Block;
+
+import com.sun.jna.Pointer;
+import firm.Graph;
+import firm.bindings.binding_irgraph;
+import firm.bindings.binding_irnode;
+import firm.bindings.binding_irnode.ir_opcode;
+import firm.nodes.Node;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * A read-only copy of the structure of a graph in primitive arrays: Opcodes, predecessors and
+ * blocks of every node reachable from the End node.
+ *
+ * <p>Read-mostly analyses spend most of their time in JNA calls and in allocating {@link Node}
+ * wrappers while walking the graph. A snapshot is taken in a single walk directly on the raw
+ * bindings, after which queries are plain array accesses. Wrappers are only created on demand with
+ * {@link #node(int)}.
+ *
+ * <p>Nodes are identified by their index ({@code get_irn_idx}), which is dense per graph. The
+ * snapshot isn't updated when the graph changes, so it should be discarded after transformations.
+ */
+public class GraphSnapshot {
+  private static final int NO_BLOCK = -1;
+
+  private final Graph graph;
+  /** Indices of all reachable nodes in the order of discovery. */
+  private final int[] reachable;
+
+  private final Pointer[] pointers;
+  private final int[] opcodes;
+  private final int[] blocks;
+  private final int[] predOffsets;
+  private final int[] predCounts;
+  private final int[] preds;
+  private final Node[] wrappers;
+
+  private GraphSnapshot(
+      Graph graph,
+      int[] reachable,
+      Pointer[] pointers,
+      int[] opcodes,
+      int[] blocks,
+      int[] predOffsets,
+      int[] predCounts,
+      int[] preds) {
+    this.graph = graph;
+    this.reachable = reachable;
+    this.pointers = pointers;
+    this.opcodes = opcodes;
+    this.blocks = blocks;
+    this.predOffsets = predOffsets;
+    this.predCounts = predCounts;
+    this.preds = preds;
+    this.wrappers = new Node[pointers.length];
+  }
+
+  /** Takes a snapshot of all nodes reachable from the End node of {@code graph}. */
+  public static GraphSnapshot of(Graph graph) {
+    int n = binding_irgraph.get_irg_last_idx(graph.ptr);
+    Pointer[] pointers = new Pointer[n];
+    int[] opcodes = new int[n];
+    int[] blocks = new int[n];
+    Arrays.fill(blocks, NO_BLOCK);
+    int[] predOffsets = new int[n];
+    int[] predCounts = new int[n];
+    int[] preds = new int[2 * n];
+    int predsSize = 0;
+    int[] reachable = new int[n];
+    int reachableSize = 0;
+
+    Deque<Pointer> toVisit = new ArrayDeque<>();
+    Pointer end = graph.getEnd().ptr;
+    int endIdx = binding_irnode.get_irn_idx(end);
+    pointers[endIdx] = end;
+    toVisit.push(end);
+    while (!toVisit.isEmpty()) {
+      Pointer ptr = toVisit.pop();
+      int idx = binding_irnode.get_irn_idx(ptr);
+      reachable[reachableSize++] = idx;
+      opcodes[idx] = binding_irnode.get_irn_opcode(ptr);
+
+      if (opcodes[idx] != iro_Block.val) {
+        Pointer block = binding_irnode.get_nodes_block(ptr);
+        blocks[idx] = discover(block, pointers, toVisit);
+      }
+
+      int arity = binding_irnode.get_irn_arity(ptr);
+      if (predsSize + arity > preds.length) {
+        preds = Arrays.copyOf(preds, Math.max(2 * preds.length, predsSize + arity));
+      }
+      predOffsets[idx] = predsSize;
+      predCounts[idx] = arity;
+      for (int i = 0; i < arity; ++i) {
+        preds[predsSize++] = discover(binding_irnode.get_irn_n(ptr, i), pointers, toVisit);
+      }
+    }
+
+    return new GraphSnapshot(
+        graph,
+        Arrays.copyOf(reachable, reachableSize),
+        pointers,
+        opcodes,
+        blocks,
+        predOffsets,
+        predCounts,
+        preds);
+  }
+
+  private static int discover(Pointer ptr, Pointer[] pointers, Deque<Pointer> toVisit) {
+    int idx = binding_irnode.get_irn_idx(ptr);
+    if (pointers[idx] == null) {
+      pointers[idx] = ptr;
+      toVisit.push(ptr);
+    }
+    return idx;
+  }
+
+  public Graph getGraph() {
+    return graph;
+  }
+
+  /** The number of nodes reachable from the End node. */
+  public int size() {
+    return reachable.length;
+  }
+
+  /** The index of the {@code i}th reachable node, in the order in which they were discovered. */
+  public int reachableNode(int i) {
+    return reachable[i];
+  }
+
+  /** The index of {@code node}, which can be used for queries on this snapshot. */
+  public int indexOf(Node node) {
+    return binding_irnode.get_irn_idx(node.ptr);
+  }
+
+  public boolean hasOpCode(int node, ir_opcode opcode) {
+    return opcodes[node] == opcode.val;
+  }
+
+  /** The index of the block of {@code node}, or -1 for blocks. */
+  public int getBlock(int node) {
+    return blocks[node];
+  }
+
+  public int getPredCount(int node) {
+    return predCounts[node];
+  }
+
+  public int pred(int node, int i) {
+    return preds[predOffsets[node] + i];
+  }
+
+  /** Returns the (cached) {@link Node} wrapper for the node with index {@code node}. */
+  public Node node(int node) {
+    if (wrappers[node] == null) {
+      wrappers[node] = Node.createWrapper(pointers[node]);
+    }
+    return wrappers[node];
+  }
+}
@@ -2,17 +2,18 @@ package minijava.ir.utils;
 
 import static org.jooq.lambda.tuple.Tuple.tuple;
 
+import firm.Entity;
 import firm.Graph;
 import firm.bindings.binding_irgraph;
 import firm.bindings.binding_irgraph.ir_resources_t;
+import firm.bindings.binding_irnode;
 import firm.nodes.*;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Deque;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 import java.util.function.Consumer;
 import minijava.ir.Dominance;
 import org.jooq.lambda.tuple.Tuple2;
@@ -29,6 +30,29 @@ public class GraphUtils {
         to, () -> tuple(worker.copyNode(from.getStart()), worker.copyNode(from.getEnd())));
   }
 
+  /**
+   * Copies {@code from} into a new graph for {@code entity}, which must have the same method type
+   * as the entity of {@code from}.
+   */
+  public static Graph copyGraph(Graph from, Entity entity) {
+    Graph to = new Graph(entity, 0);
+    CopyWorker worker = new CopyWorker(to);
+    FirmUtils.withoutBackEdges(
+        to,
+        () -> {
+          // The anchors of the new graph are replaced by copies, the old ones become unreachable.
+          to.setStartBlock(worker.copyNode(from.getStartBlock()));
+          to.setStart(worker.copyNode(from.getStart()));
+          to.setEndBlock(worker.copyNode(from.getEndBlock()));
+          to.setEnd(worker.copyNode(from.getEnd()));
+          to.setInitialMem(worker.copyNode(from.getInitialMem()));
+          to.setArgs(worker.copyNode(from.getArgs()));
+          to.setNoMem(worker.copyNode(from.getNoMem()));
+          to.setFrame(worker.copyNode(from.getFrame()));
+        });
+    return to;
+  }
+
   private static class CopyWorker {
     private final Map<Node, Node> mapping = new HashMap<>();
     private final Graph graph;
@@ -43,6 +67,7 @@ public class GraphUtils {
       }
       T copy = (T) graph.copyNode(node);
       NodeUtils.setLink(copy, NodeUtils.getLink(node));
+      ProfileKeys.inherit(copy, node);
       mapping.put(node, copy);
       mapping.put(copy, copy); // Just in case some reference was already updated
       if (node.getBlock() != null) {
@@ -74,14 +99,30 @@ public class GraphUtils {
     return connected[0];
   }
 
+  /**
+   * Topological orders computed for each graph, so that subsequent optimizations don't have to walk
+   * an unchanged graph again.
+   *
+   * <p>We can't tell whether a graph was rewired in place (setPred, setBlock, exchange), so a
+   * cached order is only handed out once. Afterwards it has to be confirmed through {@link
+   * #retainTopologicalOrder(Graph)} by someone who knows that the graph didn't change, otherwise it
+   * is recomputed on the next request. Passes therefore don't have to invalidate the order after
+   * changing the graph. That's only necessary when a graph is freed (see {@link #freeGraph}) and
+   * for optimizers which change the graph but report no change to the framework.
+   */
+  private static final Map<Graph, CachedOrder> TOPOLOGICAL_ORDERS = new HashMap<>();
+
   /**
    * Computes a topological order on the predecessor (!) graph. This is the right traversal for
    * things that change control flow. You can assume (except for back edges) that the nodes are
    * untouched when visited, e.g. predecessors are exactly the same as when the walk was started.
    */
   public static ArrayDeque<Node> reverseTopologicalOrder(Graph graph) {
-    ArrayDeque<Node> stack = new ArrayDeque<>();
-    walkFromNodeTopological(graph.getEnd(), stack::addFirst);
+    ArrayList<Node> order = cachedTopologicalOrder(graph);
+    ArrayDeque<Node> stack = new ArrayDeque<>(order.size());
+    for (Node node : order) {
+      stack.addFirst(node);
+    }
     return stack;
   }
 
@@ -90,9 +131,59 @@ public class GraphUtils {
    * loops are broken at back edges.
    */
   public static ArrayList<Node> topologicalOrder(Graph graph) {
-    ArrayList<Node> ret = new ArrayList<>();
-    walkFromNodeTopological(graph.getEnd(), ret::add);
-    return ret;
+    return new ArrayList<>(cachedTopologicalOrder(graph));
+  }
+
+  /**
+   * Keeps the topological order of {@code graph} which was handed out last, because the graph is
+   * known to be unchanged since then. The {@link minijava.ir.optimize.OptimizerFramework} does this
+   * for optimizers which report no change.
+   */
+  public static void retainTopologicalOrder(Graph graph) {
+    CachedOrder cached = TOPOLOGICAL_ORDERS.get(graph);
+    if (cached != null) {
+      cached.isUpToDate = true;
+    }
+  }
+
+  /** Forgets the cached topological order of {@code graph}, e.g. before it is freed. */
+  public static void invalidateTopologicalOrder(Graph graph) {
+    TOPOLOGICAL_ORDERS.remove(graph);
+  }
+
+  /**
+   * Frees {@code graph} and everything we cached about its nodes. libfirm's {@code free_ir_graph}
+   * also removes the graph from the program (through {@code remove_irp_irg}) and resets the graph
+   * of its entity, so neither {@link firm.Program#getGraphs()} nor the entity refer to it
+   * afterwards. Calls to the entity remain valid, but have to be unreachable.
+   */
+  public static void freeGraph(Graph graph) {
+    invalidateTopologicalOrder(graph);
+    ProfileKeys.forget(graph);
+    binding_irgraph.free_ir_graph(graph.ptr);
+  }
+
+  private static ArrayList<Node> cachedTopologicalOrder(Graph graph) {
+    CachedOrder cached = TOPOLOGICAL_ORDERS.get(graph);
+    if (cached == null || !cached.isUpToDate) {
+      ArrayList<Node> order = new ArrayList<>(binding_irgraph.get_irg_last_idx(graph.ptr));
+      walkFromNodeTopological(graph.getEnd(), order::add);
+      cached = new CachedOrder(order);
+      TOPOLOGICAL_ORDERS.put(graph, cached);
+    }
+    // Whoever gets the order might change the graph.
+    cached.isUpToDate = false;
+    return cached.order;
+  }
+
+  private static class CachedOrder {
+    final ArrayList<Node> order;
+    /** Whether the graph is known to be unchanged since the order was last handed out. */
+    boolean isUpToDate;
+
+    CachedOrder(ArrayList<Node> order) {
+      this.order = order;
+    }
   }
 
   /**
@@ -105,29 +196,31 @@ public class GraphUtils {
    */
   public static void walkFromNodeDepthFirst(
       Node seed, Consumer<Node> onDiscover, Consumer<Node> onFinish) {
-    Deque<Tuple2<Node, Integer>> greyStack = new ArrayDeque<>();
-    Set<Node> discovered = new HashSet<>();
-    greyStack.addFirst(tuple(seed, -1));
+    GreyStack greyStack = new GreyStack();
+    BitSet discovered = new BitSet();
+    greyStack.push(seed, -1);
     while (!greyStack.isEmpty()) {
-      Tuple2<Node, Integer> nextGrey = greyStack.removeFirst();
-      Node node = nextGrey.v1;
-      int counter = nextGrey.v2;
+      Node node = greyStack.topNode();
+      int counter = greyStack.topCounter();
+      greyStack.pop();
 
       if (counter < 0) {
         // we haven't yet discovered this node
-        discovered.add(node);
+        discovered.set(idx(node));
         onDiscover.accept(node);
         // next time only visit preds
-        greyStack.addFirst(tuple(node, 0));
+        greyStack.push(node, 0);
 
-        if (node.getBlock() != null && !discovered.contains(node.getBlock())) {
-          greyStack.addFirst(tuple(node.getBlock(), -1));
+        Node block = node.getBlock();
+        if (block != null && !discovered.get(idx(block))) {
+          greyStack.push(block, -1);
         }
       } else if (counter < node.getPredCount()) {
         // we have to visit all children first
-        greyStack.addFirst(tuple(node, counter + 1));
-        if (!discovered.contains(node.getPred(counter))) {
-          greyStack.addFirst(tuple(node.getPred(counter), -1));
+        greyStack.push(node, counter + 1);
+        Node pred = node.getPred(counter);
+        if (!discovered.get(idx(pred))) {
+          greyStack.push(pred, -1);
         }
       } else {
         // All children were visited! we can finish this node
@@ -138,13 +231,13 @@ public class GraphUtils {
 
   /** Walks a graph in topological order, beginning at a seed node. */
   public static void walkFromNodeTopological(Node seed, Consumer<Node> onFinish) {
-    Deque<Tuple2<Node, Integer>> greyStack = new ArrayDeque<>();
-    Set<Node> discovered = new HashSet<>();
-    greyStack.addFirst(tuple(seed, -1));
+    GreyStack greyStack = new GreyStack();
+    BitSet discovered = new BitSet();
+    greyStack.push(seed, -1);
     while (!greyStack.isEmpty()) {
-      Tuple2<Node, Integer> nextGrey = greyStack.removeFirst();
-      Node node = nextGrey.v1;
-      int counter = nextGrey.v2;
+      Node node = greyStack.topNode();
+      int counter = greyStack.topCounter();
+      greyStack.pop();
 
       // we only add this node to the discovered set when it's a loop breaker.
       // This way, loops are always broken at what are back edges in the firm graph.
@@ -155,28 +248,71 @@ public class GraphUtils {
           // If it's not a loop breaker, we potentially visit it more than once.
           // That's not bad however, since we only call the onFinish handler the
           // first time we visited all preds.
-          discovered.add(node);
+          discovered.set(idx(node));
         }
         // next time only visit preds
-        greyStack.addFirst(tuple(node, 0));
+        greyStack.push(node, 0);
 
-        if (node.getBlock() != null && !discovered.contains(node.getBlock())) {
-          greyStack.addFirst(tuple(node.getBlock(), -1));
+        Node block = node.getBlock();
+        if (block != null && !discovered.get(idx(block))) {
+          greyStack.push(block, -1);
         }
       } else if (counter < node.getPredCount()) {
         // we have to visit all children first
-        greyStack.addFirst(tuple(node, counter + 1));
-        if (!discovered.contains(node.getPred(counter))) {
-          greyStack.addFirst(tuple(node.getPred(counter), -1));
+        greyStack.push(node, counter + 1);
+        Node pred = node.getPred(counter);
+        if (!discovered.get(idx(pred))) {
+          greyStack.push(pred, -1);
         }
-      } else if (isLoopBreaker || !discovered.contains(node)) {
+      } else if (isLoopBreaker || !discovered.get(idx(node))) {
         // All children were visited! we can finish this node (but only once!)
-        discovered.add(node);
+        discovered.set(idx(node));
         onFinish.accept(node);
       }
     }
   }
 
+  /** Node indices are dense in each graph, so they are perfect for indexing a {@link BitSet}. */
+  private static int idx(Node node) {
+    return binding_irnode.get_irn_idx(node.ptr);
+  }
+
+  /**
+   * The stack of grey nodes of a depth-first traversal, together with the index of the next
+   * predecessor to visit. Stored in parallel arrays, so that pushing doesn't allocate.
+   */
+  private static class GreyStack {
+    private Node[] nodes = new Node[64];
+    private int[] counters = new int[64];
+    private int size = 0;
+
+    void push(Node node, int counter) {
+      if (size == nodes.length) {
+        nodes = Arrays.copyOf(nodes, size * 2);
+        counters = Arrays.copyOf(counters, size * 2);
+      }
+      nodes[size] = node;
+      counters[size] = counter;
+      size++;
+    }
+
+    Node topNode() {
+      return nodes[size - 1];
+    }
+
+    int topCounter() {
+      return counters[size - 1];
+    }
+
+    void pop() {
+      nodes[--size] = null;
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+  }
+
   public static void freeResource(Graph g, ir_resources_t resource) {
     binding_irgraph.ir_free_resources(g.ptr, resource.val);
   }
@@ -202,6 +202,18 @@ public class NodeUtils {
     }
   }
 
+  /**
+   * Whether {@code node} accesses memory, like Loads, Stores and Calls. Phis, Syncs and Projs only
+   * pass memory on. Divs and Mods don't count either, as they only depend on NoMem.
+   */
+  public static boolean dependsOnMemory(Node node) {
+    if (node instanceof Phi || node instanceof Sync || node instanceof Proj) {
+      return false;
+    }
+    return seq(node.getPreds())
+        .anyMatch(pred -> pred.getMode().equals(Mode.getM()) && !(pred instanceof NoMem));
+  }
+
   /** Returns the unique Proj of mode M depending on {@param sideEffect} or creates one. */
   public static Proj getMemProjSuccessor(Node sideEffect) {
     return seq(BackEdges.getOuts(sideEffect))
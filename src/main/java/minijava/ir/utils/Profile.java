@@ -0,0 +1,131 @@
+package minijava.ir.utils;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import firm.Graph;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.OptionalLong;
+
+/**
+ * Execution counts of a previous run of the program.
+ *
+ * <p>An instrumented binary increments counters in the code and dumps them at exit as lines of the
+ * form {@code <key> <count>} (see {@code mj_runtime.c}). There are three kinds of counters:
+ *
+ * <ul>
+ *   <li>The start block of every method counts under the {@code ldName} of the method, which is the
+ *       number of calls to the method.
+ *   <li>Other blocks count under their {@link ProfileKeys}, as long as they still have one.
+ *   <li>Every control flow edge leaving a Cond counts under the {@link ProfileKeys#edgeKey} of the
+ *       Cond. As there are no critical edges, the counter sits at the start of the target block.
+ * </ul>
+ *
+ * <p>Copies of a node share its key, so their counts are summed up.
+ */
+public class Profile {
+  /** Methods called at least 1/HOT_FRACTION times as often as the most called one are hot. */
+  private static final int HOT_FRACTION = 100;
+
+  public static final Profile EMPTY = new Profile(ImmutableMap.of());
+
+  private final Map<String, Long> counts;
+  private final long maxEntryCount;
+
+  private Profile(Map<String, Long> counts) {
+    this.counts = counts;
+    long max = 0;
+    for (Map.Entry<String, Long> count : counts.entrySet()) {
+      if (ProfileKeys.isMethodKey(count.getKey())) {
+        max = Math.max(max, count.getValue());
+      }
+    }
+    this.maxEntryCount = max;
+  }
+
+  public static Profile load(File file) throws IOException {
+    try (Reader reader = Files.newBufferedReader(file.toPath(), Charsets.UTF_8)) {
+      return parse(reader);
+    }
+  }
+
+  /** Parses the lines written by the instrumented binary. Counts of duplicate keys are summed. */
+  public static Profile parse(Reader in) throws IOException {
+    Map<String, Long> counts = new HashMap<>();
+    BufferedReader reader = new BufferedReader(in);
+    String line;
+    while ((line = reader.readLine()) != null) {
+      line = line.trim();
+      if (line.isEmpty()) {
+        continue;
+      }
+      int space = line.lastIndexOf(' ');
+      if (space < 0) {
+        throw new IOException("Malformed profile line: " + line);
+      }
+      try {
+        long count = Long.parseLong(line.substring(space + 1));
+        counts.merge(line.substring(0, space).trim(), count, Long::sum);
+      } catch (NumberFormatException e) {
+        throw new IOException("Malformed profile line: " + line, e);
+      }
+    }
+    return new Profile(counts);
+  }
+
+  public boolean isEmpty() {
+    return counts.isEmpty();
+  }
+
+  /** How often the block or edge with {@code key} was executed, if it is part of the profile. */
+  public OptionalLong count(String key) {
+    Long count = counts.get(key);
+    return count == null ? OptionalLong.empty() : OptionalLong.of(count);
+  }
+
+  /** How often the method with {@code ldName} was called, if it is part of the profile. */
+  public OptionalLong entryCount(String ldName) {
+    return count(ldName);
+  }
+
+  public OptionalLong entryCount(Graph graph) {
+    return entryCount(graph.getEntity().getLdName());
+  }
+
+  /** Whether the method was part of the profiled run, but never called. */
+  public boolean isCold(String ldName) {
+    OptionalLong count = entryCount(ldName);
+    return count.isPresent() && count.getAsLong() == 0;
+  }
+
+  public boolean isCold(Graph graph) {
+    return isCold(graph.getEntity().getLdName());
+  }
+
+  /** Whether the method was called at least a fraction of the times the hottest method was. */
+  public boolean isHot(String ldName) {
+    OptionalLong count = entryCount(ldName);
+    return count.isPresent()
+        && count.getAsLong() > 0
+        && count.getAsLong() * HOT_FRACTION >= maxEntryCount;
+  }
+
+  public boolean isHot(Graph graph) {
+    return isHot(graph.getEntity().getLdName());
+  }
+
+  /** The local symbol of the counter of the code block with {@code label}. */
+  public static String counterSymbol(String label) {
+    return ".Lcount_" + label;
+  }
+
+  /** The local symbol of the counter of the edge into the code block with {@code label}. */
+  public static String edgeCounterSymbol(String label) {
+    return counterSymbol(label) + "_edge";
+  }
+}
@@ -0,0 +1,80 @@
+package minijava.ir.utils;
+
+import firm.Graph;
+import firm.nodes.Block;
+import firm.nodes.Cond;
+import firm.nodes.Node;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Names for the blocks and conditional jumps of a method which identify them across compilations of
+ * the same program, so that the counts of an instrumented build can be matched with the nodes of an
+ * optimized build (see {@link Profile}).
+ *
+ * <p>Node numbers depend on everything that happened to the graph before, so they can't be used for
+ * this. Instead, the blocks and Conds are numbered in topological order right after the graph was
+ * constructed, which only depends on the source. The numbers are prefixed by the {@code ldName} of
+ * the method. Copies made by {@link GraphUtils#copyGraph} and loop transformations inherit the key
+ * of the original, so inlined code is matched with the counts of the callee. Nodes created by
+ * optimizations have no key.
+ */
+public class ProfileKeys {
+  /** Separates the method from the node part of a key. ldNames never contain it. */
+  private static final char SEPARATOR = '#';
+
+  /**
+   * The keys of the nodes of each graph. Nodes are compared by their address, which may be reused
+   * once their graph is freed, so {@link #forget(Graph)} has to be called before that (see {@link
+   * GraphUtils#freeGraph}).
+   */
+  private static final Map<Graph, Map<Node, String>> KEYS = new HashMap<>();
+
+  /**
+   * Assigns keys to all blocks except the start block and to all Conds of the fresh {@code graph}.
+   */
+  public static void assign(Graph graph) {
+    String ldName = graph.getEntity().getLdName();
+    Block startBlock = graph.getStartBlock();
+    Map<Node, String> keys = new HashMap<>();
+    int blocks = 0;
+    int conds = 0;
+    for (Node node : GraphUtils.topologicalOrder(graph)) {
+      if (node instanceof Block && !node.equals(startBlock)) {
+        keys.put(node, ldName + SEPARATOR + "b" + blocks++);
+      } else if (node instanceof Cond) {
+        keys.put(node, ldName + SEPARATOR + "c" + conds++);
+      }
+    }
+    // Replaces whatever was left over from a freed graph at the same address.
+    KEYS.put(graph, keys);
+  }
+
+  public static Optional<String> of(Node node) {
+    Map<Node, String> keys = KEYS.get(node.getGraph());
+    return keys == null ? Optional.empty() : Optional.ofNullable(keys.get(node));
+  }
+
+  /** Lets {@code copy} share the key of {@code original}, if there is any. */
+  public static void inherit(Node copy, Node original) {
+    of(original)
+        .ifPresent(
+            key -> KEYS.computeIfAbsent(copy.getGraph(), g -> new HashMap<>()).put(copy, key));
+  }
+
+  /** Drops the keys of the nodes of {@code graph}, which is about to be freed. */
+  public static void forget(Graph graph) {
+    KEYS.remove(graph);
+  }
+
+  /** The key of the control flow edge of the Cond with {@code condKey} to its true/false target. */
+  public static String edgeKey(String condKey, boolean isTrueEdge) {
+    return condKey + (isTrueEdge ? "/true" : "/false");
+  }
+
+  /** Whether {@code key} is the {@code ldName} of a method rather than the key of a node. */
+  public static boolean isMethodKey(String key) {
+    return key.indexOf(SEPARATOR) < 0;
+  }
+}
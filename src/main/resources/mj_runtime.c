@@ -23,7 +23,36 @@ int read_int(){
 
 void mjMain();
 
+#ifdef __linux__
+// The counters of an instrumented binary (MJ_PROFILE_GENERATE), see ProfileSegment.java.
+// The linker defines these symbols only if there is any code block with a counter.
+struct mj_profile_counter {
+    long count;
+    const char* label;
+};
+
+extern struct mj_profile_counter __start_mj_profile[] __attribute__((weak));
+extern struct mj_profile_counter __stop_mj_profile[] __attribute__((weak));
+
+void dump_profile() {
+    const char* path = getenv("MJ_PROFILE_FILE");
+    FILE* file = fopen(path != NULL ? path : "mj_profile.txt", "w");
+    if (file == NULL) {
+        return;
+    }
+    for (struct mj_profile_counter* c = __start_mj_profile; c < __stop_mj_profile; c++) {
+        fprintf(file, "%s %ld\n", c->label, c->count);
+    }
+    fclose(file);
+}
+#endif
+
 int main() {
+#ifdef __linux__
+    if (__start_mj_profile != __stop_mj_profile) {
+        atexit(dump_profile);
+    }
+#endif
     mjMain();
     return 0;
 }
@@ -0,0 +1,91 @@
+package minijava.ir.assembler;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class MagicDivisorTest {
+
+  private static final int[] INTERESTING_DIVIDENDS = {
+    Integer.MIN_VALUE,
+    Integer.MIN_VALUE + 1,
+    -1000,
+    -7,
+    -1,
+    0,
+    1,
+    7,
+    1000,
+    Integer.MAX_VALUE - 1,
+    Integer.MAX_VALUE
+  };
+
+  private static void assertDividesCorrectly(int divisor) {
+    MagicDivisor magic = MagicDivisor.of(divisor);
+    Random random = new Random(divisor);
+    for (int dividend : INTERESTING_DIVIDENDS) {
+      assertDivides(magic, dividend);
+    }
+    for (int k = -3; k <= 3; ++k) {
+      // Dividends around multiples of the divisor
+      int multiple = divisor * k;
+      assertDivides(magic, multiple - 1);
+      assertDivides(magic, multiple);
+      assertDivides(magic, multiple + 1);
+    }
+    for (int i = 0; i < 1000; ++i) {
+      assertDivides(magic, random.nextInt());
+    }
+  }
+
+  private static void assertDivides(MagicDivisor magic, int dividend) {
+    assertThat(
+        dividend + " / " + magic.divisor, magic.divide(dividend), is(dividend / magic.divisor));
+  }
+
+  @Test
+  public void smallDivisors() {
+    for (int divisor = 2; divisor < 1000; ++divisor) {
+      assertDividesCorrectly(divisor);
+      assertDividesCorrectly(-divisor);
+    }
+  }
+
+  @Test
+  public void powersOfTwo() {
+    for (int shift = 1; shift < 31; ++shift) {
+      assertDividesCorrectly(1 << shift);
+      assertDividesCorrectly(-(1 << shift));
+    }
+    assertDividesCorrectly(Integer.MIN_VALUE);
+  }
+
+  @Test
+  public void bigDivisors() {
+    assertDividesCorrectly(Integer.MAX_VALUE);
+    assertDividesCorrectly(Integer.MIN_VALUE + 1);
+    assertDividesCorrectly(1_000_000_007);
+    assertDividesCorrectly(-641);
+  }
+
+  @Test
+  public void knownMagicNumbers() {
+    // From Hacker's Delight, table 10-1
+    assertThat(MagicDivisor.of(7).magic, is(0x92492493));
+    assertThat(MagicDivisor.of(7).shift, is(2));
+    assertThat(MagicDivisor.of(10).magic, is(0x66666667));
+    assertThat(MagicDivisor.of(10).shift, is(2));
+  }
+
+  @Test
+  public void isApplicable_excludesTrivialDivisors() {
+    assertThat(MagicDivisor.isApplicable(0), is(false));
+    assertThat(MagicDivisor.isApplicable(1), is(false));
+    assertThat(MagicDivisor.isApplicable(-1), is(false));
+    assertThat(MagicDivisor.isApplicable(1L << 32), is(false));
+    assertThat(MagicDivisor.isApplicable(2), is(true));
+    assertThat(MagicDivisor.isApplicable(-2), is(true));
+  }
+}
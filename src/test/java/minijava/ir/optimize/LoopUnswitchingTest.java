@@ -0,0 +1,57 @@
+package minijava.ir.optimize;
+
+import static org.hamcrest.core.Is.is;
+import static org.jooq.lambda.Seq.seq;
+import static org.junit.Assert.assertThat;
+
+import com.google.common.collect.Sets;
+import firm.Graph;
+import firm.Program;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import minijava.Compiler;
+import org.junit.Test;
+
+public class LoopUnswitchingTest {
+
+  /** The loop is left through the Cond in its header, which has two successors. */
+  private static final String PROGRAM =
+      "class Main {\n"
+          + "  public static void main(String[] args) {\n"
+          + "    System.out.println(new Main().count(10, 1, 2));\n"
+          + "  }\n"
+          + "  public int count(int n, int a, int b) {\n"
+          + "    int x = 0;\n"
+          + "    int i = 0;\n"
+          + "    while (i < n) {\n"
+          + "      if (a < b) {\n"
+          + "        x = x + 1;\n"
+          + "      } else {\n"
+          + "        x = x - 1;\n"
+          + "      }\n"
+          + "      i = i + 1;\n"
+          + "    }\n"
+          + "    return x;\n"
+          + "  }\n"
+          + "}\n";
+
+  @Test
+  public void unswitch_headerWithTwoSuccessors_leavesNoCriticalEdges() throws Exception {
+    Set<Graph> previous = Sets.newHashSet(Program.getGraphs());
+    Compiler.produceFirmIR(new ByteArrayInputStream(PROGRAM.getBytes(StandardCharsets.UTF_8)), 0);
+    List<Graph> graphs = seq(Program.getGraphs()).filter(g -> !previous.contains(g)).toList();
+
+    LoopUnswitching unswitching = new LoopUnswitching(ProgramMetrics.analyse(graphs));
+    boolean hasChanged = false;
+    for (Graph graph : graphs) {
+      hasChanged |= unswitching.optimize(graph);
+    }
+    assertThat(hasChanged, is(true));
+
+    // Throws on critical edges
+    CriticalEdgeDetector detector = new CriticalEdgeDetector();
+    graphs.forEach(detector::optimize);
+  }
+}
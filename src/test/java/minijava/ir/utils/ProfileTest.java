@@ -0,0 +1,63 @@
+package minijava.ir.utils;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.OptionalLong;
+import org.junit.Test;
+
+public class ProfileTest {
+
+  private static Profile parse(String profile) throws IOException {
+    return Profile.parse(new StringReader(profile));
+  }
+
+  @Test
+  public void parse_countsOfBlocksEdgesAndMethods() throws Exception {
+    Profile profile = parse("mjMain 1\nmjMain#b12 42\n\nmjMain#c3/true 41\n_C3Foo_M3bar 7\n");
+    assertThat(profile.isEmpty(), is(false));
+    assertThat(profile.count("mjMain#b12"), is(OptionalLong.of(42)));
+    assertThat(profile.count(ProfileKeys.edgeKey("mjMain#c3", true)), is(OptionalLong.of(41)));
+    assertThat(profile.entryCount("_C3Foo_M3bar"), is(OptionalLong.of(7)));
+    assertThat(profile.count("mjMain#b13"), is(OptionalLong.empty()));
+  }
+
+  @Test
+  public void parse_duplicateLabels_areSummed() throws Exception {
+    Profile profile = parse("foo 1\nfoo 2\n");
+    assertThat(profile.entryCount("foo"), is(OptionalLong.of(3)));
+  }
+
+  @Test(expected = IOException.class)
+  public void parse_missingCount_throws() throws Exception {
+    parse("foo\n");
+  }
+
+  @Test(expected = IOException.class)
+  public void parse_malformedCount_throws() throws Exception {
+    parse("foo bar\n");
+  }
+
+  @Test
+  public void isHot_relativeToMostCalledMethod() throws Exception {
+    // Block and edge counts don't count as calls, even if they are much higher
+    Profile profile =
+        parse("hot 1000\nwarm 10\nlukewarm 9\ncold 0\nhot#b1 100000\nhot#c0/false 100000\n");
+    assertThat(profile.isHot("hot"), is(true));
+    assertThat(profile.isHot("warm"), is(true));
+    assertThat(profile.isHot("lukewarm"), is(false));
+    assertThat(profile.isHot("cold"), is(false));
+    assertThat(profile.isHot("unknown"), is(false));
+  }
+
+  @Test
+  public void isCold_onlyForMethodsWhichWereNeverCalled() throws Exception {
+    Profile profile = parse("hot 1000\ncold 0\n");
+    assertThat(profile.isCold("cold"), is(true));
+    assertThat(profile.isCold("hot"), is(false));
+    assertThat(profile.isCold("unknown"), is(false));
+    assertThat(Profile.EMPTY.isCold("cold"), is(false));
+  }
+}